@@ -6,6 +6,7 @@ import java.nio.charset.StandardCharsets;
 import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -37,8 +38,17 @@ public class DsonFile {
     // Embed files are strings that have the last null-terminating character
     // included in the data size
     public DsonFile(byte[] File, UnhashBehavior behavior) throws ParseException {
+        this(ByteBuffer.wrap(File), behavior);
+    }
+
+    /**
+     * Decodes the file between the buffer's position and limit. Doesn't keep
+     * a reference to the buffer, so it can be reused afterwards.
+     */
+    public DsonFile(ByteBuffer File, UnhashBehavior behavior) throws ParseException {
         this.autoUnhashNames = behavior;
-        ByteBuffer buffer = ByteBuffer.wrap(File);
+        // Offsets in the file are relative to its start
+        ByteBuffer buffer = File.slice();
         buffer.order(ByteOrder.LITTLE_ENDIAN);
 
         // Read Header
@@ -363,6 +373,20 @@ public class DsonFile {
         return getJSonString(0, false);
     }
 
+    public List<DsonField> getRootFields() {
+        return Collections.unmodifiableList(rootFields);
+    }
+
+    /**
+     * @return The JSON text of a single field and its children, the way it
+     *         appears in {@link #toString()} at the given indent
+     */
+    public String getJSonString(DsonField field, int indent) {
+        StringBuilder sb = new StringBuilder();
+        writeField(sb, field, indent, false);
+        return sb.toString();
+    }
+
     // Whether this File has duplicate fields that will get lost when converting to
     // string
     // This doesn't seem to be causing any issues, but is important for test
@@ -1,7 +1,12 @@
 package de.robojumper.ddsavereader.model;
 
+import de.robojumper.ddsavereader.file.DsonFile;
+
 public abstract class AbstractFile {
 
-    public abstract void update(String json);
+    /**
+     * @param file Decoded file, with names not unhashed
+     */
+    public abstract void update(DsonFile file);
 
 }
@@ -4,26 +4,41 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 import com.google.gson.Gson;
-import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
 import com.google.gson.JsonParser;
 import com.google.gson.TypeAdapter;
 import com.google.gson.annotations.SerializedName;
 import com.google.gson.internal.LinkedTreeMap;
 import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 import com.google.gson.stream.JsonWriter;
 
+import de.robojumper.ddsavereader.file.DsonField;
+import de.robojumper.ddsavereader.file.DsonFile;
+import de.robojumper.ddsavereader.file.DsonTypes.FieldType;
+import de.robojumper.ddsavereader.model.helper.DsonTree;
 import de.robojumper.ddsavereader.model.helper.HashedString;
+import de.robojumper.ddsavereader.util.ContentHash;
 
 public class CampaignLog extends AbstractFile {
 
-    public static class ChapterAdapter extends TypeAdapter<Chapter> {
+    // Only used by ingest(), for the chapters it hasn't seen yet
+    static class ChapterAdapter extends TypeAdapter<Chapter> {
+
+        // Binds the events, shared by all threads that parse logs
+        private final Gson gson;
+
+        ChapterAdapter(Gson gson) {
+            this.gson = gson;
+        }
 
         @Override
         public void write(JsonWriter out, Chapter value) throws IOException {
@@ -32,26 +47,61 @@ public class CampaignLog extends AbstractFile {
 
         @Override
         public Chapter read(JsonReader in) throws IOException {
-            JsonObject chapterRoot = JsonParser.parseReader(in).getAsJsonObject();
             Chapter c = new Chapter();
-            c.chapterIndex = chapterRoot.getAsJsonPrimitive("chapterIndex").getAsInt();
-            Gson g = SaveState.makeGson();
-            for (Entry<String, JsonElement> entry : chapterRoot.entrySet()) {
-                try {
-                    Integer.parseInt(entry.getKey());
-                    JsonObject RTTIObject = entry.getValue().getAsJsonObject();
-                    int rtti = RTTIObject.get("rtti").getAsInt();
-                    Class<? extends BaseRTTI> cls = RTTI_TO_CLASS_MAP.get(rtti);
-                    if (cls != null) {
-                        c.events.add(g.fromJson(RTTIObject, cls));
+            in.beginObject();
+            while (in.hasNext()) {
+                String name = in.nextName();
+                if (name.equals("chapterIndex")) {
+                    c.chapterIndex = in.nextInt();
+                } else if (isIndex(name) && in.peek() == JsonToken.BEGIN_OBJECT) {
+                    BaseRTTI event = readEvent(in);
+                    if (event != null) {
+                        c.events.add(event);
                     }
-                } catch (NumberFormatException e) {
-                    // Do nothing
+                } else {
+                    in.skipValue();
                 }
             }
+            in.endObject();
             return c;
         }
 
+        // The game writes the rtti as the first field of every event, so we know
+        // whether we are interested before reading the rest. Only events we
+        // actually bind are turned into a (small) tree.
+        private BaseRTTI readEvent(JsonReader in) throws IOException {
+            JsonObject fields = new JsonObject();
+            Class<? extends BaseRTTI> cls = null;
+            boolean sawRtti = false;
+            in.beginObject();
+            while (in.hasNext()) {
+                String name = in.nextName();
+                if (!sawRtti && name.equals("rtti")) {
+                    int rtti = in.nextInt();
+                    sawRtti = true;
+                    cls = RTTI_TO_CLASS_MAP.get(rtti);
+                    fields.addProperty(name, rtti);
+                } else if (sawRtti && cls == null) {
+                    in.skipValue();
+                } else {
+                    fields.add(name, JsonParser.parseReader(in));
+                }
+            }
+            in.endObject();
+            return cls != null ? gson.fromJson(fields, cls) : null;
+        }
+
+        private static boolean isIndex(String name) {
+            if (name.isEmpty()) {
+                return false;
+            }
+            for (int i = 0; i < name.length(); i++) {
+                if (name.charAt(i) < '0' || name.charAt(i) > '9') {
+                    return false;
+                }
+            }
+            return true;
+        }
     }
 
     private static final Map<Integer, Class<? extends BaseRTTI>> RTTI_TO_CLASS_MAP = new HashMap<>();
@@ -70,10 +120,9 @@ public class CampaignLog extends AbstractFile {
 
     class CampaignLogData {
 
-        @SerializedName("total_weeks")
+        // total_weeks
         int weeks = -1;
 
-        @SerializedName("chapters")
         Map<Integer, Chapter> chapters = new LinkedTreeMap<>();
     }
 
@@ -184,32 +233,226 @@ public class CampaignLog extends AbstractFile {
         }
     }
 
+    /**
+     * Everything the log says about a single hero, aggregated over all chapters.
+     */
+    public static class HeroStats {
+        int maxLevel;
+        int missionsStarted;
+        int deaths;
+        int lastMissionWeek = -1;
+        BaseRTTI lastMission;
+
+        HeroStats copy() {
+            HeroStats s = new HeroStats();
+            s.maxLevel = maxLevel;
+            s.missionsStarted = missionsStarted;
+            s.deaths = deaths;
+            s.lastMissionWeek = lastMissionWeek;
+            s.lastMission = lastMission;
+            return s;
+        }
+
+        public int getMaxLevel() {
+            return maxLevel;
+        }
+
+        public int getMissionsStarted() {
+            return missionsStarted;
+        }
+
+        public int getDeaths() {
+            return deaths;
+        }
+
+        /**
+         * @return Chapter index of the last mission the hero was part of, or -1
+         */
+        public int getLastMissionWeek() {
+            return lastMissionWeek;
+        }
+
+        /**
+         * @return Start or end event of the last mission the hero was part of, or
+         *         null
+         */
+        public BaseRTTI getLastMission() {
+            return lastMission;
+        }
+    }
+
+    private static final HeroStats NO_STATS = new HeroStats();
+
+    private static final ChapterAdapter CHAPTER_ADAPTER = new ChapterAdapter(SaveState.makeGson());
+
     private CampaignLogData campaignLog = new CampaignLogData();
 
+    // Hero GUID -> stats, rebuilt on every update
+    private Map<Integer, HeroStats> heroStats = new HashMap<>();
+
+    // The log only ever grows: once a newer chapter exists, a chapter doesn't
+    // change anymore. Such chapters are only decoded once, and their stats are
+    // accumulated in frozenStats. Only new chapters and the most recent one are
+    // bound on update. Frozen chapters are still hashed, so that a log from
+    // another campaign is noticed.
+    private static class IngestState {
+        final Map<Integer, Chapter> frozenChapters = new HashMap<>();
+        final Map<Integer, Long> frozenHashes = new HashMap<>();
+        final Map<Integer, HeroStats> frozenStats = new HashMap<>();
+        int lastFrozenIndex = -1;
+    }
+
+    private IngestState ingested;
+
+    public CampaignLog() {
+        this.ingested = new IngestState();
+    }
+
+    /**
+     * Creates an empty log that continues ingesting where the previous one left
+     * off. The previous log must not be updated anymore.
+     */
+    CampaignLog(CampaignLog previous) {
+        this.ingested = previous.ingested;
+    }
+
     @Override
-    public void update(String json) {
-        JsonObject o = JsonParser.parseString(json).getAsJsonObject();
-        o = o.getAsJsonObject("base_root");
+    public void update(DsonFile file) {
+        try {
+            if (!ingest(file)) {
+                // Not a continuation of the log we have seen so far (restored
+                // backup, other profile...), start over
+                ingested = new IngestState();
+                ingest(file);
+            }
+        } catch (NumberFormatException | IllegalStateException e) {
+            throw new JsonParseException(e);
+        }
+    }
+
+    private boolean ingest(DsonFile file) {
+        CampaignLogData data = new CampaignLogData();
+        int numFrozenSeen = 0;
+        int latestIndex = -1;
+        List<Integer> decoded = new ArrayList<>();
+        Map<Integer, Long> hashes = new HashMap<>();
+
+        for (DsonField f : DsonTree.getBaseRootField(file).children) {
+            if (f.name.equals("total_weeks")) {
+                data.weeks = DsonTree.toJson(f).getAsInt();
+            } else if (f.name.equals("chapters") && f.type == FieldType.TYPE_OBJECT) {
+                for (DsonField chapter : f.children) {
+                    int index = Integer.parseInt(chapter.name);
+                    if (data.chapters.containsKey(index)) {
+                        // Duplicate field, the first one counts
+                        continue;
+                    }
+                    long hash = hash(ContentHash.INITIAL, chapter);
+                    Chapter c = ingested.frozenChapters.get(index);
+                    if (c != null) {
+                        if (hash != ingested.frozenHashes.get(index)) {
+                            return false;
+                        }
+                        numFrozenSeen++;
+                    } else {
+                        c = CHAPTER_ADAPTER.fromJsonTree(DsonTree.toJson(chapter));
+                        hashes.put(index, hash);
+                        decoded.add(index);
+                    }
+                    data.chapters.put(index, c);
+                    latestIndex = Math.max(latestIndex, index);
+                }
+            }
+        }
+
+        if (numFrozenSeen != ingested.frozenChapters.size() || (ingested.lastFrozenIndex >= 0 && latestIndex <= ingested.lastFrozenIndex)
+                || decoded.stream().anyMatch(i -> i < ingested.lastFrozenIndex)) {
+            return false;
+        }
 
-        Gson g = SaveState.makeGson();
-        this.campaignLog = g.fromJson(o, CampaignLogData.class);
+        decoded.sort(Integer::compare);
+        for (int index : decoded) {
+            if (index < latestIndex) {
+                Chapter c = data.chapters.get(index);
+                ingested.frozenChapters.put(index, c);
+                ingested.frozenHashes.put(index, hashes.get(index));
+                addToStats(ingested.frozenStats, c);
+                ingested.lastFrozenIndex = index;
+            }
+        }
+
+        Map<Integer, HeroStats> stats = new HashMap<>();
+        ingested.frozenStats.forEach((k, v) -> stats.put(k, v.copy()));
+        if (latestIndex >= 0) {
+            addToStats(stats, data.chapters.get(latestIndex));
+        }
+
+        this.campaignLog = data;
+        this.heroStats = stats;
+        return true;
+    }
+
+    // Hashes the fields as they were decoded, so that frozen chapters are
+    // checked without building their trees
+    private static long hash(long hash, DsonField f) {
+        hash = ContentHash.update(hash, f.name);
+        hash = ContentHash.update(hash, f.type.ordinal());
+        if (f.type == FieldType.TYPE_OBJECT) {
+            for (DsonField c : f.children) {
+                hash = hash(hash, c);
+            }
+            return ContentHash.update(hash, '}');
+        } else if (f.type == FieldType.TYPE_FILE) {
+            for (DsonField c : f.embeddedFile.getRootFields()) {
+                hash = hash(hash, c);
+            }
+            return ContentHash.update(hash, '}');
+        } else {
+            return ContentHash.update(hash, f.dataString);
+        }
+    }
+
+    private static void addToStats(Map<Integer, HeroStats> stats, Chapter c) {
+        Set<Integer> seen = new HashSet<>();
+        for (BaseRTTI e : c.events) {
+            if (e instanceof HeroLevelupEvent) {
+                HeroLevelupEvent levelup = (HeroLevelupEvent) e;
+                HeroStats s = stats.computeIfAbsent(levelup.guid, k -> new HeroStats());
+                s.maxLevel = Math.max(s.maxLevel, levelup.level);
+            } else if (e instanceof MissionEvent && ((MissionEvent) e).heroes != null) {
+                MissionEvent mission = (MissionEvent) e;
+                seen.clear();
+                for (HeroRef h : mission.heroes.values()) {
+                    if (!seen.add(h.guid)) {
+                        continue;
+                    }
+                    HeroStats s = stats.computeIfAbsent(h.guid, k -> new HeroStats());
+                    if (mission.start) {
+                        s.missionsStarted++;
+                    } else if (h.died) {
+                        s.deaths++;
+                    }
+                    s.lastMissionWeek = c.chapterIndex;
+                    s.lastMission = mission;
+                }
+            }
+        }
     }
 
     public int getNumWeeks() {
         return campaignLog.weeks;
     }
 
+    public HeroStats getHeroStats(final int HeroID) {
+        return heroStats.getOrDefault(HeroID, NO_STATS);
+    }
+
     public int getHeroLevel(final int HeroID) {
-        return campaignLog.chapters.values().stream().flatMap(c -> c.events.stream())
-                .filter(e -> (e instanceof HeroLevelupEvent) && ((HeroLevelupEvent) e).guid == HeroID)
-                .map(a -> ((HeroLevelupEvent) a).level).max(Integer::compare).orElse(0);
+        return getHeroStats(HeroID).maxLevel;
     }
 
     public int getHeroMissionCount(final int HeroID) {
-        return (int) campaignLog.chapters.values().stream().flatMap(c -> c.events.stream())
-                .filter(e -> (e instanceof MissionEvent) && ((MissionEvent) e).start
-                        && ((MissionEvent) e).heroes.values().stream().anyMatch(h -> h.guid == HeroID))
-                .count();
+        return getHeroStats(HeroID).missionsStarted;
     }
 
     public List<Chapter> getChapters() {
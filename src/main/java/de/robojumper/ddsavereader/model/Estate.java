@@ -2,18 +2,19 @@ package de.robojumper.ddsavereader.model;
 
 import java.util.HashMap;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import com.google.gson.Gson;
 import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
 import com.google.gson.annotations.SerializedName;
 import com.google.gson.internal.LinkedTreeMap;
 
+import de.robojumper.ddsavereader.file.DsonFile;
 import de.robojumper.ddsavereader.model.Estate.EstateData.InventoryObject.ItemEntry;
 import de.robojumper.ddsavereader.model.Estate.EstateData.WalletEntry;
+import de.robojumper.ddsavereader.model.helper.DsonTree;
+import de.robojumper.ddsavereader.model.helper.NameIndex;
 
 public class Estate extends AbstractFile {
 
@@ -59,13 +60,24 @@ public class Estate extends AbstractFile {
 
     EstateData estateData = new EstateData();
 
+    // Normalized resource name -> amount. Wallet entries take precedence over estate items.
+    private NameIndex<Integer> resourceNames = new NameIndex<>();
+
     @Override
-    public void update(String json) {
-        JsonObject o = JsonParser.parseString(json).getAsJsonObject();
-        o = o.getAsJsonObject("base_root");
+    public void update(DsonFile file) {
+        JsonObject o = DsonTree.getBaseRoot(file);
 
         Gson g = SaveState.makeGson();
-        this.estateData = g.fromJson(o, EstateData.class);
+        EstateData data = g.fromJson(o, EstateData.class);
+        NameIndex<Integer> names = new NameIndex<>();
+        for (WalletEntry e : data.wallet.values()) {
+            names.put(SaveState.normalizeQueryString(e.type), e.amount);
+        }
+        for (ItemEntry e : data.estateItems.items.values()) {
+            names.put(SaveState.normalizeQueryString(e.id), e.amount);
+        }
+        this.estateData = data;
+        this.resourceNames = names;
     }
 
     public Integer getResourceCount(String resource) {
@@ -73,19 +85,7 @@ public class Estate extends AbstractFile {
         if (normalizedResourceName.equals("blood")) {
             normalizedResourceName = "the_blood";
         }
-        for (Entry<Integer, WalletEntry> e : estateData.wallet.entrySet()) {
-            String normalizedEName = SaveState.normalizeQueryString(e.getValue().type);
-            if (normalizedEName.equals(normalizedResourceName)) {
-                return e.getValue().amount;
-            }
-        }
-        for (Entry<Integer, ItemEntry> e : estateData.estateItems.items.entrySet()) {
-            String normalizedEName = SaveState.normalizeQueryString(e.getValue().id);
-            if (normalizedEName.equals(normalizedResourceName)) {
-                return e.getValue().amount;
-            }
-        }
-        return null;
+        return resourceNames.get(normalizedResourceName);
     }
 
     public String buildResourceList() {
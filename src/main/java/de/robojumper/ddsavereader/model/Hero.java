@@ -123,6 +123,9 @@ public class Hero {
     
     int id;
     
+    // Cached, since Hero objects survive updates of the roster that don't touch them
+    private transient String normalizedName;
+    
     void setID(int ID) {
         this.id = ID; 
     }
@@ -135,6 +138,13 @@ public class Hero {
         return data.name;
     }
     
+    String getNormalizedName() {
+        if (normalizedName == null) {
+            normalizedName = SaveState.normalizeQueryString(data.name);
+        }
+        return normalizedName;
+    }
+    
     public HeroStatus getStatus() {
         return status;
     }
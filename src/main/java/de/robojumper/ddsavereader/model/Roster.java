@@ -1,77 +1,25 @@
 package de.robojumper.ddsavereader.model;
 
-import java.io.IOException;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Objects;
 import java.util.stream.Collectors;
 
 import com.google.gson.Gson;
+import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
-import com.google.gson.TypeAdapter;
-import com.google.gson.annotations.JsonAdapter;
+import com.google.gson.JsonParseException;
 import com.google.gson.annotations.SerializedName;
-import com.google.gson.reflect.TypeToken;
-import com.google.gson.stream.JsonReader;
-import com.google.gson.stream.JsonToken;
-import com.google.gson.stream.JsonWriter;
 
-public class Roster extends AbstractFile {
-    
-    public static class HeroMapAdapter extends TypeAdapter<Map<Integer, Hero>> {
-
-        @Override
-        public Map<Integer, Hero> read(JsonReader in) throws IOException {
-            Map<Integer, Hero> map = new HashMap<>();
-            in.beginObject();
-            while (in.peek() != JsonToken.END_OBJECT) {
-                int id = Integer.valueOf(in.nextName());
-                
-                in.beginObject();
-                if (!Objects.equals(in.nextName(), "hero_file_data"))
-                    throw new IOException();
-                
-                in.beginObject();
-                if (!Objects.equals(in.nextName(), "raw_data"))
-                    throw new IOException();
-                
-                in.beginObject();
-                if (!Objects.equals(in.nextName(), "base_root"))
-                    throw new IOException();
-                
-                Hero h = SaveState.makeGson().fromJson(in, Hero.class);
-                h.setID(id);
-                map.put(id, h);
-                
-                in.endObject();
-                in.endObject();
-                in.endObject();
-                
-            }
-            in.endObject();
-            return map;
-        }
-
-        @Override
-        public void write(JsonWriter out, Map<Integer, Hero> in) throws IOException {
-            out.beginObject();
-            out.name("hero_file_data");
-            out.beginObject();
-            out.name("raw_data");
-            out.beginObject();
-            out.name("base_root");
-            SaveState.makeGson().toJson(in, new TypeToken<Map<Integer, Hero>>() {}.getType(), out);
-            out.endObject();
-            out.endObject();
-            out.endObject();
-        }
+import de.robojumper.ddsavereader.file.DsonFile;
+import de.robojumper.ddsavereader.model.helper.DsonTree;
+import de.robojumper.ddsavereader.model.helper.NameIndex;
+import de.robojumper.ddsavereader.model.helper.SubtreeCache;
 
-    }
+public class Roster extends AbstractFile {
     
     class LastParty {
         @SerializedName("last_party_guids")
@@ -82,9 +30,8 @@ public class Roster extends AbstractFile {
         @SerializedName("dismissed_hero_count")
         private int dismissedHeroCount = -1;
         
-        @SerializedName("heroes")
-        @JsonAdapter(HeroMapAdapter.class)
-        private final Map<Integer, Hero> heroes = new HashMap<>();
+        // Bound separately, see update()
+        private transient Map<Integer, Hero> heroes = new HashMap<>();
         
         @SerializedName("last_party")
         LastParty party = new LastParty();
@@ -92,13 +39,63 @@ public class Roster extends AbstractFile {
 
     private RosterData rosterData = new RosterData();
     
+    // Normalized hero name -> hero ID
+    private NameIndex<Integer> heroNames = new NameIndex<>();
+    
+    // Embedded hero files by hero ID. Usually only one or two heroes change
+    // between two saves, so all others keep their Hero object.
+    private final SubtreeCache<Integer, Hero> heroCache;
+    
+    public Roster() {
+        this.heroCache = new SubtreeCache<>();
+    }
+    
+    /**
+     * Creates an empty roster that will re-use the heroes of the previous one
+     * when updated. The previous roster must not be updated anymore.
+     */
+    Roster(Roster previous) {
+        this.heroCache = previous.heroCache;
+    }
+    
     @Override
-    public void update(String json) {
-        JsonObject o = JsonParser.parseString(json).getAsJsonObject();
-        o = o.getAsJsonObject("base_root");
+    public void update(DsonFile file) {
+        JsonObject o = DsonTree.getBaseRoot(file);
         
         Gson g = SaveState.makeGson();
-        this.rosterData = g.fromJson(o, RosterData.class);
+        JsonElement heroes = o.remove("heroes");
+        RosterData data = g.fromJson(o, RosterData.class);
+        data.heroes = new HashMap<>();
+        heroCache.begin();
+        if (heroes != null) {
+            for (Map.Entry<String, JsonElement> e : heroes.getAsJsonObject().entrySet()) {
+                int id = Integer.parseInt(e.getKey());
+                JsonElement heroFile = getMember(e.getValue(), "hero_file_data", "raw_data", "base_root");
+                Hero h = heroCache.bind(id, heroFile, tree -> {
+                    Hero newHero = g.fromJson(tree, Hero.class);
+                    newHero.setID(id);
+                    return newHero;
+                });
+                data.heroes.put(id, h);
+            }
+        }
+        NameIndex<Integer> names = new NameIndex<>();
+        for (Hero h : data.heroes.values()) {
+            names.put(h.getNormalizedName(), h.getID());
+        }
+        this.rosterData = data;
+        this.heroNames = names;
+    }
+    
+    private static JsonElement getMember(JsonElement e, String... path) {
+        for (String name : path) {
+            JsonElement child = e.isJsonObject() ? e.getAsJsonObject().get(name) : null;
+            if (child == null) {
+                throw new JsonParseException("Expected " + name + " in embedded hero file");
+            }
+            e = child;
+        }
+        return e;
     }
     
     public Hero getHero(Integer id) {
@@ -112,15 +109,16 @@ public class Roster extends AbstractFile {
         return getHero(getHeroID(heroName));
     }
     
+    /**
+     * Finds a hero by name. Accents and case are ignored, and a unique prefix of
+     * the name is enough.
+     */
     public Integer getHeroID(String heroName) {
         String normalizedHeroName = SaveState.normalizeQueryString(heroName);
-        for (Map.Entry<Integer, Hero> e : rosterData.heroes.entrySet()) {
-            String normalizedEName = SaveState.normalizeQueryString(e.getValue().data.name);
-            if (normalizedEName.equals(normalizedHeroName)) {
-                return e.getKey();
-            }
+        if (normalizedHeroName.isEmpty()) {
+            return null;
         }
-        return null;
+        return heroNames.getByPrefix(normalizedHeroName);
     }
     
     public Collection<Hero> getHeroes() {
@@ -2,13 +2,18 @@ package de.robojumper.ddsavereader.model;
 
 import java.text.Normalizer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.TypeAdapter;
 
-import de.robojumper.ddsavereader.model.CampaignLog.Chapter;
+import de.robojumper.ddsavereader.file.DsonFile;
 import de.robojumper.ddsavereader.model.helper.HashedString;
 
 /**
@@ -21,6 +26,13 @@ import de.robojumper.ddsavereader.model.helper.HashedString;
  * before the data becomes updated again.
  * In fact, it may even be beneficial to not deserialize at all, and
  * instead get to the relevant data just with a JsonParser.
+ * The exceptions are the embedded hero files in the roster, which are
+ * remembered with a content hash (see
+ * {@link de.robojumper.ddsavereader.model.helper.SubtreeCache}) and only
+ * re-bound when they actually changed, and the campaign log, which only
+ * decodes the chapters it hasn't seen yet.
+ * Updates are published as immutable {@link Snapshot}s, so readers never
+ * block writers or each other.
  * @author robojumper
  *
  */
@@ -46,85 +58,126 @@ public class SaveState {
         return b.create();
     }
     
-    class Cache<T extends AbstractFile> {
-        private T data;
-        private boolean dirty;
-        private String jsonData;
-        
-        public Cache(T t) {
-            this.data = t;
-            this.dirty = false;
-            this.jsonData = "";
+    /**
+     * An immutable view of the save state at one point in time. Every update
+     * creates a new snapshot, so a reader can take one and query it for as
+     * long as it wants without locking and without seeing half of an update.
+     */
+    public static class Snapshot {
+        private final long version;
+        private final Roster roster;
+        private final Estate estate;
+        private final Town town;
+        private final CampaignLog campaignLog;
+
+        Snapshot(long version, Roster roster, Estate estate, Town town, CampaignLog campaignLog) {
+            this.version = version;
+            this.roster = roster;
+            this.estate = estate;
+            this.town = town;
+            this.campaignLog = campaignLog;
         }
-        
-        public T get() {
-            synchronized (SaveState.this) {
-                if (this.dirty) {
-                    this.data.update(jsonData);
-                    this.dirty = false;
-                }
-            }
-            return this.data;
+
+        /**
+         * @return Number of updates that went into this snapshot
+         */
+        public long getVersion() {
+            return version;
         }
-        
-        public void update(String jsonData) {
-            synchronized (SaveState.this) {
-                this.jsonData = jsonData;
-                this.dirty = true;
-            }
+
+        public Roster getRoster() {
+            return roster;
+        }
+
+        public Estate getEstate() {
+            return estate;
+        }
+
+        public Town getTown() {
+            return town;
+        }
+
+        public CampaignLog getCampaignLog() {
+            return campaignLog;
         }
-        
     }
 
-    private Cache<Roster> roster = new Cache<>(new Roster());
-    private Cache<Estate> estate = new Cache<>(new Estate());
-    private Cache<Town> town = new Cache<>(new Town());
-    private Cache<CampaignLog> campaignLog = new Cache<>(new CampaignLog());
-    
-    
-    
-    
+    /**
+     * Names of the files {@link #update(String, DsonFile)} doesn't ignore.
+     */
+    public static final Set<String> TRACKED_FILES = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+            "persist.roster.json", "persist.estate.json", "persist.town.json", "persist.campaign_log.json")));
+
+    private final AtomicReference<Snapshot> snapshot = new AtomicReference<>(
+            new Snapshot(0, new Roster(), new Estate(), new Town(), new CampaignLog()));
+    // Only serializes writers, readers never take it
+    private final Object updateLock = new Object();
+
     static {
         GLOBAL_TYPE_ADAPTERS.add(new TypeAdapterMapping<HashedString>(HashedString.class, new HashedString.HashedStringAdapter()));
-        GLOBAL_TYPE_ADAPTERS.add(new TypeAdapterMapping<Chapter>(Chapter.class, new CampaignLog.ChapterAdapter()));
     }
 
-
-
-    public void update(String fileName, String jsonData) {
-        switch (fileName) {
-            case "persist.roster.json":
-                roster.update(jsonData);
-                break;
-            case "persist.estate.json":
-                estate.update(jsonData);
-                break;
-            case "persist.town.json":
-                town.update(jsonData);
-                break;
-            case "persist.campaign_log.json":
-                campaignLog.update(jsonData);
-                break;
-            default:
-                break;
+    /**
+     * Binds the new contents of a file and publishes a new snapshot. Files we
+     * don't care about are ignored. The files are bound on the calling thread,
+     * readers keep using the previous snapshot until the new one is complete.
+     * If binding fails, the previous snapshot stays current.
+     *
+     * @param file Decoded file, with names not unhashed
+     */
+    public void update(String fileName, DsonFile file) {
+        synchronized (updateLock) {
+            Snapshot s = snapshot.get();
+            Roster roster = s.roster;
+            Estate estate = s.estate;
+            Town town = s.town;
+            CampaignLog campaignLog = s.campaignLog;
+            switch (fileName) {
+                case "persist.roster.json":
+                    roster = new Roster(s.roster);
+                    roster.update(file);
+                    break;
+                case "persist.estate.json":
+                    estate = new Estate();
+                    estate.update(file);
+                    break;
+                case "persist.town.json":
+                    town = new Town();
+                    town.update(file);
+                    break;
+                case "persist.campaign_log.json":
+                    campaignLog = new CampaignLog(s.campaignLog);
+                    campaignLog.update(file);
+                    break;
+                default:
+                    return;
+            }
+            snapshot.set(new Snapshot(s.version + 1, roster, estate, town, campaignLog));
         }
     }
 
-    
+    /**
+     * @return The most recent snapshot. Use this rather than the individual
+     *         getters if you query more than one thing.
+     */
+    public Snapshot getSnapshot() {
+        return snapshot.get();
+    }
+
     public Roster getRoster() {
-        return roster.get();
+        return snapshot.get().roster;
     }
     
     public Estate getEstate() {
-        return estate.get();
+        return snapshot.get().estate;
     }
     
     public Town getTown() {
-        return town.get();
+        return snapshot.get().town;
     }
     
     public CampaignLog getCampaignLog() {
-        return campaignLog.get();
+        return snapshot.get().campaignLog;
     }
 
     // https://stackoverflow.com/questions/8519669/replace-non-ascii-character-from-string/17786019
@@ -16,6 +16,9 @@ import com.google.gson.internal.LinkedTreeMap;
 import com.google.gson.stream.JsonReader;
 import com.google.gson.stream.JsonWriter;
 
+import de.robojumper.ddsavereader.file.DsonFile;
+import de.robojumper.ddsavereader.model.helper.DsonTree;
+
 
 public class Town extends AbstractFile {
 
@@ -76,9 +79,8 @@ public class Town extends AbstractFile {
     TownData townData = new TownData();
     
     @Override
-    public void update(String json) {
-        JsonObject o = JsonParser.parseString(json).getAsJsonObject();
-        o = o.getAsJsonObject("base_root");
+    public void update(DsonFile file) {
+        JsonObject o = DsonTree.getBaseRoot(file);
         
         Gson g = SaveState.makeGson();
         this.townData = g.fromJson(o, TownData.class);
@@ -0,0 +1,91 @@
+package de.robojumper.ddsavereader.model.helper;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+import com.google.gson.internal.LazilyParsedNumber;
+
+import de.robojumper.ddsavereader.file.DsonField;
+import de.robojumper.ddsavereader.file.DsonFile;
+import de.robojumper.ddsavereader.file.DsonTypes.FieldType;
+
+/**
+ * Builds Gson trees straight from the fields of a decoded file, so that
+ * binding a file doesn't need its JSON text. The trees are the same as
+ * parsing {@link DsonFile#toString()} would give: duplicate fields keep their
+ * first value, and embedded files become objects.
+ *
+ * @author robojumper
+ */
+public class DsonTree {
+
+    private DsonTree() {
+    }
+
+    /**
+     * @return The base_root field of the file
+     * @throws JsonParseException If there is no base_root object
+     */
+    public static DsonField getBaseRootField(DsonFile file) {
+        for (DsonField f : file.getRootFields()) {
+            if (f.name.equals("base_root") && f.type == FieldType.TYPE_OBJECT) {
+                return f;
+            }
+        }
+        throw new JsonParseException("Expected base_root object");
+    }
+
+    /**
+     * @return The base_root object of the file
+     * @throws JsonParseException If there is no base_root object
+     */
+    public static JsonObject getBaseRoot(DsonFile file) {
+        return toJson(getBaseRootField(file)).getAsJsonObject();
+    }
+
+    public static JsonObject toJson(DsonFile file) {
+        JsonObject o = new JsonObject();
+        for (DsonField f : file.getRootFields()) {
+            if (!o.has(f.name)) {
+                o.add(f.name, toJson(f));
+            }
+        }
+        return o;
+    }
+
+    public static JsonElement toJson(DsonField field) {
+        switch (field.type) {
+        case TYPE_OBJECT:
+            JsonObject o = new JsonObject();
+            for (DsonField c : field.children) {
+                if (!o.has(c.name)) {
+                    o.add(c.name, toJson(c));
+                }
+            }
+            return o;
+        case TYPE_FILE:
+            return toJson(field.embeddedFile);
+        case TYPE_BOOL:
+            return new JsonPrimitive(field.dataString.equals("true"));
+        case TYPE_INT:
+        case TYPE_FLOAT:
+            // Unhashed names are strings
+            if (field.dataString.charAt(0) != '"') {
+                return new JsonPrimitive(new LazilyParsedNumber(field.dataString));
+            }
+            break;
+        case TYPE_STRING:
+            // Escaped newlines need the parser
+            if (field.dataString.indexOf('\\') < 0) {
+                return new JsonPrimitive(field.dataString.substring(1, field.dataString.length() - 1));
+            }
+            break;
+        default:
+            break;
+        }
+        // Vectors, chars...: a small literal
+        return JsonParser.parseString(field.dataString);
+    }
+}
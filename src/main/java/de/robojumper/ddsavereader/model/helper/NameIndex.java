@@ -0,0 +1,82 @@
+package de.robojumper.ddsavereader.model.helper;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Prefix trie from (already normalized) names to values. Lookups cost
+ * O(length of the query), independent of the number of names.
+ *
+ * @author robojumper
+ */
+public class NameIndex<V> {
+
+    private static class Node<V> {
+        Map<Character, Node<V>> children;
+        // Value of the name ending at this node
+        V value;
+        // Some value in this subtree, and the number of values in the subtree
+        V anyValue;
+        int numValues;
+    }
+
+    private final Node<V> root = new Node<>();
+
+    /**
+     * Adds a name. If the name is already present, the first value is kept.
+     */
+    public void put(String name, V value) {
+        if (get(name) != null) {
+            return;
+        }
+        Node<V> n = root;
+        addValue(n, value);
+        for (int i = 0; i < name.length(); i++) {
+            if (n.children == null) {
+                n.children = new HashMap<>(4);
+            }
+            n = n.children.computeIfAbsent(name.charAt(i), c -> new Node<>());
+            addValue(n, value);
+        }
+        n.value = value;
+    }
+
+    private void addValue(Node<V> n, V value) {
+        if (n.anyValue == null) {
+            n.anyValue = value;
+        }
+        n.numValues++;
+    }
+
+    /**
+     * @return The value for exactly this name, or null
+     */
+    public V get(String name) {
+        Node<V> n = find(name);
+        return n != null ? n.value : null;
+    }
+
+    /**
+     * @return The value for this name if there is one, otherwise the value of
+     *         the only name that starts with the given prefix, or null if that
+     *         is ambiguous.
+     */
+    public V getByPrefix(String prefix) {
+        Node<V> n = find(prefix);
+        if (n == null) {
+            return null;
+        } else if (n.value != null) {
+            return n.value;
+        } else {
+            return n.numValues == 1 ? n.anyValue : null;
+        }
+    }
+
+    private Node<V> find(String name) {
+        Node<V> n = root;
+        for (int i = 0; i < name.length() && n != null; i++) {
+            n = n.children != null ? n.children.get(name.charAt(i)) : null;
+        }
+        return n;
+    }
+}
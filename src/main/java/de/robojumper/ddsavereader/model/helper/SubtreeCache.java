@@ -0,0 +1,98 @@
+package de.robojumper.ddsavereader.model.helper;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonPrimitive;
+
+import de.robojumper.ddsavereader.util.ContentHash;
+
+/**
+ * Remembers the objects bound from JSON subtrees (embedded hero files, log
+ * chapters...) together with a content hash of the subtree. When a file is
+ * updated, only subtrees whose content changed are bound again, the others
+ * keep the object from the previous update.
+ *
+ * Usage: call {@link #begin()} once per update, then {@link #bind} for every
+ * subtree in the new file. Anything not bound since the last begin() is
+ * forgotten on the next one.
+ *
+ * @author robojumper
+ */
+public class SubtreeCache<K, V> {
+
+    private static class Entry<V> {
+        final long hash;
+        final V value;
+
+        Entry(long hash, V value) {
+            this.hash = hash;
+            this.value = value;
+        }
+    }
+
+    private Map<K, Entry<V>> previous = Collections.emptyMap();
+    private Map<K, Entry<V>> current = new HashMap<>();
+    private int numReused, numBound;
+
+    public void begin() {
+        previous = current;
+        current = new HashMap<>();
+        numReused = 0;
+        numBound = 0;
+    }
+
+    public V bind(K key, JsonElement subtree, Function<JsonElement, V> binder) {
+        long hash = hash(ContentHash.INITIAL, subtree);
+        Entry<V> e = previous.get(key);
+        if (e != null && e.hash == hash) {
+            numReused++;
+        } else {
+            e = new Entry<>(hash, binder.apply(subtree));
+            numBound++;
+        }
+        current.put(key, e);
+        return e.value;
+    }
+
+    /**
+     * @return Number of subtrees that kept their object in the last update
+     */
+    public int getNumReused() {
+        return numReused;
+    }
+
+    /**
+     * @return Number of subtrees that had to be bound in the last update
+     */
+    public int getNumBound() {
+        return numBound;
+    }
+
+    static long hash(long hash, JsonElement e) {
+        if (e.isJsonObject()) {
+            hash = ContentHash.update(hash, '{');
+            for (Map.Entry<String, JsonElement> child : e.getAsJsonObject().entrySet()) {
+                hash = ContentHash.update(hash, child.getKey());
+                hash = hash(hash, child.getValue());
+            }
+            return ContentHash.update(hash, '}');
+        } else if (e.isJsonArray()) {
+            hash = ContentHash.update(hash, '[');
+            for (JsonElement child : e.getAsJsonArray()) {
+                hash = hash(hash, child);
+            }
+            return ContentHash.update(hash, ']');
+        } else if (e.isJsonPrimitive()) {
+            JsonPrimitive p = e.getAsJsonPrimitive();
+            // Tag strings so that "1" and 1 differ
+            hash = ContentHash.update(hash, p.isString() ? '"' : '#');
+            return ContentHash.update(hash, p.getAsString());
+        } else {
+            return ContentHash.update(hash, 'n');
+        }
+    }
+}
@@ -45,7 +45,7 @@ import de.robojumper.ddsavereader.file.DsonTypes;
 import de.robojumper.ddsavereader.model.Hero;
 import de.robojumper.ddsavereader.model.SaveState;
 import de.robojumper.ddsavereader.watcher.DarkestSaveFileWatcher;
-import de.robojumper.ddsavereader.watcher.DarkestSaveFileWatcher.DsonParseResult;
+import de.robojumper.ddsavereader.watcher.ParsedSaveFile;
 
 public class SpreadsheetsService {
     private static final String APPLICATION_NAME = "robojumper-" + BuildConfig.NAME + "/" + BuildConfig.VERSION;
@@ -200,17 +200,18 @@ public class SpreadsheetsService {
                 .build();
 
         final SaveState state = new SaveState();
-        final DarkestSaveFileWatcher watcher = new DarkestSaveFileWatcher(
-                new BiConsumer<String, DarkestSaveFileWatcher.DsonParseResult>() {
+        final DarkestSaveFileWatcher watcher = new DarkestSaveFileWatcher();
+        // Only the files the state actually reads
+        watcher.addDirectory(saveDir, SaveState.TRACKED_FILES, new BiConsumer<String, ParsedSaveFile>() {
 
-                    @Override
-                    public void accept(String t, DsonParseResult u) {
-                        if (!u.encounteredError) {
-                            state.update(t, u.data);
-                        }
+            @Override
+            public void accept(String t, ParsedSaveFile u) {
+                if (!u.hasError()) {
+                    state.update(t, u.getFile());
+                }
 
-                    }
-                }, saveDir);
+            }
+        });
         watcher.watchSaveFiles();
 
         return new SheetUpdater() {
@@ -262,10 +263,12 @@ public class SpreadsheetsService {
                                 Collections.singletonList(Collections.singletonList("Save Data, last updated at "
                                         + new SimpleDateFormat("yyyy/MM/dd HH:mm:ss").format(new Date())))));
                     }
-                    synchronized (state) {
+                    // Take one snapshot so that all sheets show the same state
+                    SaveState.Snapshot snapshot = state.getSnapshot();
+                    {
                         // Roster
                         {
-                            List<List<Object>> rosterTable = makeRosterTable(state);
+                            List<List<Object>> rosterTable = makeRosterTable(snapshot);
                             int cols = rosterTable.stream().map(l -> l.size()).max(Integer::compare).get();
                             int rows = rosterTable.size();
 
@@ -275,7 +278,7 @@ public class SpreadsheetsService {
 
                         // Log
                         {
-                            List<Chapter> chapters = state.getCampaignLog().getChapters();
+                            List<Chapter> chapters = snapshot.getCampaignLog().getChapters();
                             List<List<Object>> rows = new ArrayList<>();
 
                             for (Chapter c : chapters) {
@@ -306,7 +309,7 @@ public class SpreadsheetsService {
 
                         // Estate
                         {
-                            Map<String, Integer> resources = state.getEstate().getResources();
+                            Map<String, Integer> resources = snapshot.getEstate().getResources();
                             List<List<Object>> rows = new ArrayList<>();
 
                             for (Map.Entry<String, Integer> e : resources.entrySet()) {
@@ -333,7 +336,7 @@ public class SpreadsheetsService {
                                     .setInnerHorizontal(new Border().setStyle("NONE"))
                                     .setInnerVertical(new Border().setStyle("NONE"))));
 
-                            List<Hero> party = state.getRoster().getParty();
+                            List<Hero> party = snapshot.getRoster().getParty();
 
                             List<List<Object>> headerRows = new ArrayList<>(21);
                             headerRows.add(Arrays.asList("Name"));
@@ -365,7 +368,7 @@ public class SpreadsheetsService {
                                                                                    // + 2trinkets + space + quests +
                                                                                    // kills
                                     rows.add(Arrays.asList(h.getName()));
-                                    rows.add(Arrays.asList("Level " + state.getCampaignLog().getHeroLevel(h.getID())
+                                    rows.add(Arrays.asList("Level " + snapshot.getCampaignLog().getHeroLevel(h.getID())
                                             + " " + h.getHeroClass()));
                                     rows.add(Arrays.asList(h.getXP() + " XP"));
                                     rows.add(Arrays.asList(""));
@@ -385,7 +388,7 @@ public class SpreadsheetsService {
                                     }
                                     rows.add(Arrays.asList(""));
                                     rows.add(Arrays
-                                            .asList(state.getCampaignLog().getHeroMissionCount(h.getID()) + " Quests"));
+                                            .asList(snapshot.getCampaignLog().getHeroMissionCount(h.getID()) + " Quests"));
                                     rows.add(Arrays.asList(h.getKills() + " Kills"));
 
                                     int startCol = (i * 2) + 1;
@@ -445,7 +448,7 @@ public class SpreadsheetsService {
                         .findAny().isPresent();
             }
 
-            private List<List<Object>> makeRosterTable(SaveState state) {
+            private List<List<Object>> makeRosterTable(SaveState.Snapshot state) {
                 List<List<Object>> rows = new ArrayList<>();
 
                 for (Hero h : state.getRoster().getHeroes()) {
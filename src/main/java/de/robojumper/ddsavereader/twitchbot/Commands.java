@@ -12,7 +12,7 @@ import de.robojumper.ddsavereader.model.Hero.HeroStatus;
 public class Commands {
     
     interface Command {
-        public String buildResponse(SaveState s, String command, String params);
+        public String buildResponse(SaveState.Snapshot s, String command, String params);
     }
     
     public static final Pattern COMMAND_PATTERN = Pattern.compile("!dd([a-zA-Z0-9]+)\\s*(.*)");
@@ -101,9 +101,7 @@ public class Commands {
 
                 Command c = COMMANDS.get(command);
                 if (c != null) {
-                    synchronized (s) {
-                        return c.buildResponse(s, command, params);
-                    }
+                    return c.buildResponse(s.getSnapshot(), command, params);
                 }
 
             }
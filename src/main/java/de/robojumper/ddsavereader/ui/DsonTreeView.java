@@ -0,0 +1,280 @@
+package de.robojumper.ddsavereader.ui;
+
+import java.awt.BorderLayout;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.swing.Box;
+import javax.swing.BoxLayout;
+import javax.swing.JButton;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JSplitPane;
+import javax.swing.JTree;
+import javax.swing.event.TreeModelListener;
+import javax.swing.tree.TreeModel;
+import javax.swing.tree.TreePath;
+
+import org.fife.ui.rsyntaxtextarea.RSyntaxTextArea;
+import org.fife.ui.rsyntaxtextarea.SyntaxConstants;
+import org.fife.ui.rtextarea.RTextScrollPane;
+
+import de.robojumper.ddsavereader.file.DsonField;
+import de.robojumper.ddsavereader.file.DsonFile;
+import de.robojumper.ddsavereader.file.DsonTypes.FieldType;
+
+/**
+ * Read-only view of a decoded file that is too large for the text editor. Shows
+ * the fields as a tree, and only turns the selected field into text. Objects
+ * with many children are split into pages of {@link #PAGE_SIZE} fields, and
+ * the text of large fields is cut off.
+ *
+ * @author robojumper
+ */
+class DsonTreeView extends JPanel {
+    private static final long serialVersionUID = -2817465301833410217L;
+
+    private static final int PAGE_SIZE = 100;
+    // Don't show more than this of a value in the tree
+    private static final int MAX_LABEL_LENGTH = 80;
+    // Selecting base_root of a large file must not put all of it into the
+    // text area, which is slow to lay out and highlight
+    static final int MAX_TEXT_LENGTH = 256 * 1024;
+
+    // A range of the children of an object
+    private static class Page {
+        // The node whose children these are
+        final Object parent;
+        final List<DsonField> fields;
+        final int start, end;
+
+        Page(Object parent, List<DsonField> fields, int start, int end) {
+            this.parent = parent;
+            this.fields = fields;
+            this.start = start;
+            this.end = end;
+        }
+
+        // JTree compares nodes with equals, and pages (and their field lists)
+        // are created anew whenever the tree asks for them
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Page)) {
+                return false;
+            }
+            Page p = (Page) obj;
+            return p.parent == parent && p.start == start;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(parent) * 31 + start;
+        }
+
+        @Override
+        public String toString() {
+            return "[" + start + " - " + (end - 1) + "]";
+        }
+    }
+
+    private final DsonFile file;
+    private final String fileName;
+    private final RSyntaxTextArea text;
+
+    /**
+     * @param openEditor
+     *            Called when the user wants to edit the whole file as text
+     */
+    DsonTreeView(String fileName, DsonFile file, Runnable openEditor) {
+        this.file = file;
+        this.fileName = fileName;
+        setLayout(new BorderLayout());
+
+        JPanel header = new JPanel();
+        header.setLayout(new BoxLayout(header, BoxLayout.LINE_AXIS));
+        header.add(new JLabel("This file is large and opened read-only. Select a field to see its contents."));
+        header.add(Box.createHorizontalGlue());
+        JButton editButton = new JButton("Open in Editor");
+        editButton.addActionListener(e -> openEditor.run());
+        header.add(editButton);
+        add(header, BorderLayout.NORTH);
+
+        JTree tree = new JTree(new Model()) {
+            private static final long serialVersionUID = 4318229047160427934L;
+
+            @Override
+            public String convertValueToText(Object value, boolean selected, boolean expanded, boolean leaf, int row,
+                    boolean hasFocus) {
+                return label(value);
+            }
+        };
+        tree.addTreeSelectionListener(e -> showText(e.getNewLeadSelectionPath()));
+
+        text = new RSyntaxTextArea();
+        text.setSyntaxEditingStyle(SyntaxConstants.SYNTAX_STYLE_JSON);
+        text.setCodeFoldingEnabled(true);
+        text.setEditable(false);
+
+        JSplitPane split = new JSplitPane(JSplitPane.VERTICAL_SPLIT, new JScrollPane(tree), new RTextScrollPane(text));
+        split.setResizeWeight(0.5);
+        add(split, BorderLayout.CENTER);
+    }
+
+    private void showText(TreePath path) {
+        text.setText(textOf(path != null ? path.getLastPathComponent() : null));
+        text.setCaretPosition(0);
+    }
+
+    /**
+     * @return The selected node as JSON. Large objects are cut off after about
+     *         {@link #MAX_TEXT_LENGTH} characters, with a note how many fields
+     *         are left out.
+     */
+    String textOf(Object node) {
+        StringBuilder sb = new StringBuilder();
+        if (node instanceof DsonField) {
+            write(sb, (DsonField) node, 0);
+        } else if (node instanceof Page) {
+            Page p = (Page) node;
+            writeFields(sb, p.fields.subList(p.start, p.end), 0);
+        }
+        return sb.toString();
+    }
+
+    // Same format as DsonFile.getJSonString(field, indent)
+    private boolean write(StringBuilder sb, DsonField f, int indent) {
+        sb.append(DsonFile.indt(indent)).append('"').append(f.name).append("\" : ");
+        if (f.type != FieldType.TYPE_OBJECT && f.type != FieldType.TYPE_FILE) {
+            sb.append(f.dataString);
+            return true;
+        }
+        List<DsonField> children = fieldsOf(f);
+        if (children.isEmpty()) {
+            sb.append("{ }");
+            return true;
+        }
+        sb.append("{\n");
+        boolean complete = writeFields(sb, children, indent + 1);
+        sb.append(DsonFile.indt(indent)).append('}');
+        return complete;
+    }
+
+    private boolean writeFields(StringBuilder sb, List<DsonField> fields, int indent) {
+        // DsonFile only writes the first of duplicate fields too
+        Set<String> written = new HashSet<>();
+        boolean complete = true;
+        for (int i = 0; i < fields.size(); i++) {
+            DsonField f = fields.get(i);
+            if (!written.add(f.name)) {
+                continue;
+            }
+            if (i > 0) {
+                sb.append(",\n");
+            }
+            if (sb.length() >= MAX_TEXT_LENGTH) {
+                sb.append(DsonFile.indt(indent)).append("// ").append(fields.size() - i)
+                        .append(" more fields, select them in the tree to see them");
+                complete = false;
+                break;
+            }
+            complete &= write(sb, f, indent);
+        }
+        sb.append('\n');
+        return complete;
+    }
+
+    private String label(Object node) {
+        if (node instanceof DsonField) {
+            DsonField f = (DsonField) node;
+            if (f.type == FieldType.TYPE_OBJECT) {
+                return f.name + " {" + f.children.length + "}";
+            } else if (f.type == FieldType.TYPE_FILE) {
+                return f.name + " (embedded file)";
+            }
+            String value = f.dataString.length() > MAX_LABEL_LENGTH
+                    ? f.dataString.substring(0, MAX_LABEL_LENGTH) + "..."
+                    : f.dataString;
+            return f.name + " : " + value;
+        } else if (node == file) {
+            return fileName;
+        }
+        return String.valueOf(node);
+    }
+
+    private List<DsonField> fieldsOf(Object node) {
+        if (node == file) {
+            return file.getRootFields();
+        } else if (node instanceof DsonField) {
+            DsonField f = (DsonField) node;
+            if (f.type == FieldType.TYPE_OBJECT) {
+                return Arrays.asList(f.children);
+            } else if (f.type == FieldType.TYPE_FILE) {
+                return f.embeddedFile.getRootFields();
+            }
+        }
+        return Collections.emptyList();
+    }
+
+    // The nodes are DsonFile (root), DsonField and Page
+    private List<?> childrenOf(Object node) {
+        if (node instanceof Page) {
+            Page p = (Page) node;
+            return p.fields.subList(p.start, p.end);
+        }
+        List<DsonField> fields = fieldsOf(node);
+        if (fields.size() <= PAGE_SIZE) {
+            return fields;
+        }
+        List<Page> pages = new ArrayList<>();
+        for (int i = 0; i < fields.size(); i += PAGE_SIZE) {
+            pages.add(new Page(node, fields, i, Math.min(i + PAGE_SIZE, fields.size())));
+        }
+        return pages;
+    }
+
+    private class Model implements TreeModel {
+
+        @Override
+        public Object getRoot() {
+            return file;
+        }
+
+        @Override
+        public Object getChild(Object parent, int index) {
+            return childrenOf(parent).get(index);
+        }
+
+        @Override
+        public int getChildCount(Object parent) {
+            return childrenOf(parent).size();
+        }
+
+        @Override
+        public boolean isLeaf(Object node) {
+            return getChildCount(node) == 0;
+        }
+
+        @Override
+        public int getIndexOfChild(Object parent, Object child) {
+            return childrenOf(parent).indexOf(child);
+        }
+
+        @Override
+        public void valueForPathChanged(TreePath path, Object newValue) {
+            // Read-only
+        }
+
+        @Override
+        public void addTreeModelListener(TreeModelListener l) {
+        }
+
+        @Override
+        public void removeTreeModelListener(TreeModelListener l) {
+        }
+    }
+}
@@ -5,6 +5,9 @@ import java.awt.Color;
 import java.awt.Component;
 import java.awt.Desktop;
 import java.awt.EventQueue;
+import java.awt.Toolkit;
+import java.awt.event.InputEvent;
+import java.awt.event.KeyEvent;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
 import java.io.File;
@@ -13,7 +16,10 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.security.GeneralSecurityException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
 import java.util.Date;
+import java.util.Deque;
+import java.util.Iterator;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
@@ -33,6 +39,7 @@ import javax.swing.JOptionPane;
 import javax.swing.JPanel;
 import javax.swing.JTabbedPane;
 import javax.swing.JTextField;
+import javax.swing.KeyStroke;
 import javax.swing.SwingUtilities;
 import javax.swing.UIManager;
 import javax.swing.UnsupportedLookAndFeelException;
@@ -77,6 +84,11 @@ public class MainWindow {
 
     private State state = new State();
 
+    // Tabs that have an editor, most recently shown first
+    private final Deque<Tab> openEditors = new ArrayDeque<>();
+
+    private SearchDialog searchDialog;
+
     /**
      * Launch the application.
      */
@@ -156,7 +168,9 @@ public class MainWindow {
         JMenuItem mntmOpenBackupDirectory = new JMenuItem("Open Backup Directory");
         mntmOpenBackupDirectory.addActionListener(e -> {
             try {
-                Desktop.getDesktop().open(new File(state.getBackupPath()));
+                File backupDir = new File(state.getBackupPath());
+                backupDir.mkdirs();
+                Desktop.getDesktop().open(backupDir);
             } catch (IOException e1) {
                 e1.printStackTrace();
             }
@@ -167,9 +181,20 @@ public class MainWindow {
         JMenu mnTools = new JMenu("Tools");
         menuBar.add(mnTools);
 
+        JMenuItem mntmSearch = new JMenuItem("Search All Files...");
+        mntmSearch.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_F,
+                Toolkit.getDefaultToolkit().getMenuShortcutKeyMask() | InputEvent.SHIFT_DOWN_MASK));
+        mntmSearch.addActionListener(e -> {
+            if (searchDialog == null) {
+                searchDialog = new SearchDialog(frame, state, this::jumpTo);
+            }
+            searchDialog.show();
+        });
+        mnTools.add(mntmSearch);
+
         mntmNames = new JMenuItem("Generate Name File...");
         mntmNames.addActionListener(e -> {
-            if (confirmLoseChanges()) {
+            if (checkNotSaving() && confirmLoseChanges()) {
                 new DataPathsDialog(frame, state.getGameDir(), state.getModsDir(), state, false);
                 DataPathsDialog.updateFromDataFile();
                 state.loadFiles();
@@ -322,7 +347,7 @@ public class MainWindow {
 
         JButton chooseSavePathButton = new JButton("Browse...");
         chooseSavePathButton.addActionListener(e -> {
-            if (confirmLoseChanges()) {
+            if (checkNotSaving() && confirmLoseChanges()) {
                 directoryChooser(state.getSaveDir(), s -> state.setSaveDir(s));
                 updateSaveDir();
                 updateFiles();
@@ -332,7 +357,7 @@ public class MainWindow {
         makeBackupButton = new JButton("Make Backup...");
         makeBackupButton.setEnabled(false);
         makeBackupButton.addActionListener(e -> {
-            if (state.getSaveStatus() != Status.ERROR) {
+            if (state.getSaveStatus() != Status.ERROR && checkNotSaving()) {
                 String result = JOptionPane.showInputDialog(frame, "Choose backup name",
                         new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date()));
                 if (result == null) {
@@ -359,12 +384,17 @@ public class MainWindow {
 
         restoreBackupButton = new JButton("Load Backup...");
         restoreBackupButton.addActionListener(e -> {
-            if (state.getSaveStatus() != Status.ERROR && state.hasAnyBackups() && confirmLoseChanges()) {
+            if (state.getSaveStatus() != Status.ERROR && state.hasAnyBackups() && checkNotSaving()
+                    && confirmLoseChanges()) {
                 String[] backups = state.getBackupNames().toArray(new String[0]);
                 Object result = JOptionPane.showInputDialog(frame, "Choose backup", "Restore",
                         JOptionPane.OK_CANCEL_OPTION, null, backups, backups[0]);
                 if (result != null) {
-                    state.restoreBackup((String) result);
+                    if (!state.restoreBackup((String) result)) {
+                        JOptionPane.showMessageDialog(frame,
+                                "Could not restore backup " + result + ". The save files were not changed.",
+                                "Restore failed", JOptionPane.ERROR_MESSAGE);
+                    }
                     state.loadFiles();
                     updateFiles();
                 }
@@ -382,6 +412,10 @@ public class MainWindow {
 
         tabbedPane = new JTabbedPane(JTabbedPane.TOP);
         tabbedPane.addChangeListener(e -> {
+            Component c = tabbedPane.getSelectedComponent();
+            if (c != null) {
+                openTab((Tab) c);
+            }
             updateSaveStatus();
         });
         panel.add(tabbedPane);
@@ -397,7 +431,7 @@ public class MainWindow {
                 String fileName = ((Tab) c).fileName;
                 SaveFile s = state.getSaveFile(fileName);
                 Tab t = (Tab) tabbedPane.getSelectedComponent();
-                t.area.setText(s.originalContents);
+                t.area.setText(s.getOriginalContents());
                 t.area.setCaretPosition(0);
             }
         });
@@ -419,16 +453,32 @@ public class MainWindow {
         saveButton = new JButton("Save All Changes");
         saveButton.addActionListener(e -> {
             if (state.canSave()) {
-                state.saveChanges();
-                state.loadFiles();
-                updateFiles();
+                state.saveChanges(errorLabel::setText, result -> {
+                    if (result.error != null) {
+                        JOptionPane.showMessageDialog(frame, result.error, "Saving failed", JOptionPane.ERROR_MESSAGE);
+                    } else if (!state.anyChanges()) {
+                        state.loadFiles();
+                        updateFiles();
+                    } else {
+                        // Edited while saving, keep the editors
+                        for (SaveFile f : state.getSaveFiles()) {
+                            updateTabStatus(f.name);
+                        }
+                    }
+                    updateSaveStatus();
+                    if (result.error == null) {
+                        errorLabel.setText("Saved " + result.numFiles + " files in "
+                                + (result.encodeMillis + result.writeMillis) + "ms");
+                    }
+                });
+                updateSaveStatus();
             }
         });
         buttonPanel.add(saveButton);
 
         reloadButton = new JButton("Reload All");
         reloadButton.addActionListener(e -> {
-            if (confirmLoseChanges()) {
+            if (checkNotSaving() && confirmLoseChanges()) {
                 state.loadFiles();
                 updateFiles();
             }
@@ -453,6 +503,7 @@ public class MainWindow {
         reloadButton.setEnabled(state.getSaveStatus() != Status.ERROR);
         mntmSpreadsheets.setEnabled(state.getSaveStatus() != Status.ERROR);
         updateBackupButtons();
+        state.importZipBackups(this::updateBackupButtons);
     }
 
     private void updateBackupButtons() {
@@ -462,45 +513,158 @@ public class MainWindow {
 
     private void updateFiles() {
         tabbedPane.removeAll();
+        openEditors.clear();
         for (SaveFile f : state.getSaveFiles()) {
             Tab compPanel = new Tab();
             compPanel.fileName = f.name;
             compPanel.setLayout(new BoxLayout(compPanel, BoxLayout.LINE_AXIS));
-            RSyntaxTextArea a = new RSyntaxTextArea(f.contents);
-            a.setCodeFoldingEnabled(true);
-            a.setSyntaxEditingStyle(SyntaxConstants.SYNTAX_STYLE_JSON);
-            compPanel.area = a;
-            a.getDocument().addDocumentListener(new DocumentListener() {
-
-                @Override
-                public void removeUpdate(DocumentEvent e) {
-                    update(e);
-                }
+            // The editor is created when the tab is first shown, see openTab()
+            tabbedPane.addTab((f.changed() ? "*" : "") + f.name, compPanel);
+            tabbedPane.setForegroundAt(tabbedPane.indexOfComponent(compPanel), colorFor(f));
+        }
+        Component c = tabbedPane.getSelectedComponent();
+        if (c != null) {
+            openTab((Tab) c);
+        }
+    }
 
-                @Override
-                public void insertUpdate(DocumentEvent e) {
-                    update(e);
-                }
+    private void openTab(Tab t) {
+        openEditors.remove(t);
+        openEditors.addFirst(t);
+        if (t.getComponentCount() == 0) {
+            if (state.isLargeFile(t.fileName)) {
+                showTreeView(t);
+            } else {
+                showEditor(t);
+            }
+        }
+        state.prefetchAround(t.fileName);
+        // Dispose the least recently shown editors that have nothing to lose
+        int max = state.getMaxOpenEditors();
+        Iterator<Tab> it = openEditors.descendingIterator();
+        while (openEditors.size() > max && it.hasNext()) {
+            Tab old = it.next();
+            if (old != t && !state.getSaveFile(old.fileName).changed()) {
+                it.remove();
+                old.removeAll();
+                old.area = null;
+            }
+        }
+    }
 
-                @Override
-                public void changedUpdate(DocumentEvent e) {
-                    update(e);
+    /**
+     * Shows the editor, or a placeholder until the file is decoded in the
+     * background.
+     */
+    private void showEditor(Tab t) {
+        if (!state.isLoaded(t.fileName)) {
+            JLabel placeholder = showPlaceholder(t);
+            state.whenLoaded(t.fileName, () -> {
+                // Unless the tab was closed or shows something else by now
+                if (placeholder.getParent() == t) {
+                    showEditor(t);
                 }
+            });
+            return;
+        }
+        t.removeAll();
+        t.area = createEditor(t);
+        t.add(new RTextScrollPane(t.area));
+        t.revalidate();
+        updateFile(t);
+    }
 
-                private void update(DocumentEvent e) {
-                    try {
-                        state.changeFile(f.name, e.getDocument().getText(0, e.getDocument().getLength()));
-                        updateSaveStatus();
-                    } catch (BadLocationException e1) {
-                        e1.printStackTrace();
+    private JLabel showPlaceholder(Tab t) {
+        t.removeAll();
+        t.area = null;
+        JLabel placeholder = new JLabel("Decoding " + t.fileName + "...");
+        t.add(placeholder);
+        t.revalidate();
+        t.repaint();
+        return placeholder;
+    }
+
+    private void showTreeView(Tab t) {
+        JLabel placeholder = showPlaceholder(t);
+        state.loadDsonFile(t.fileName, file -> {
+            if (placeholder.getParent() != t) {
+                return;
+            } else if (file == null) {
+                // Let the editor show the error
+                showEditor(t);
+                return;
+            }
+            t.removeAll();
+            t.add(new DsonTreeView(t.fileName, file, () -> {
+                showEditor(t);
+                state.whenLoaded(t.fileName, () -> {
+                    if (t.area != null) {
+                        t.area.requestFocusInWindow();
                     }
-                    updateFile(compPanel);
+                });
+            }));
+            t.revalidate();
+            t.repaint();
+        });
+    }
+
+    private RSyntaxTextArea createEditor(Tab t) {
+        RSyntaxTextArea a = new RSyntaxTextArea(state.getContents(t.fileName));
+        a.setCodeFoldingEnabled(true);
+        a.setSyntaxEditingStyle(SyntaxConstants.SYNTAX_STYLE_JSON);
+        a.setCaretPosition(0);
+        a.discardAllEdits();
+        a.getDocument().addDocumentListener(new DocumentListener() {
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                update(e);
+            }
+
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                update(e);
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+                update(e);
+            }
+
+            private void update(DocumentEvent e) {
+                try {
+                    state.changeFile(t.fileName, e.getDocument().getText(0, e.getDocument().getLength()));
+                    updateSaveStatus();
+                } catch (BadLocationException e1) {
+                    e1.printStackTrace();
                 }
-            });
-            RTextScrollPane sp = new RTextScrollPane(a);
-            compPanel.add(sp);
-            tabbedPane.addTab((f.changed() ? "*" : "") + f.name, compPanel);
-            tabbedPane.setForegroundAt(tabbedPane.indexOfComponent(compPanel), colorFor(f));
+                updateFile(t);
+            }
+        });
+        return a;
+    }
+
+    private void jumpTo(SearchIndex.Result result) {
+        for (int i = 0; i < tabbedPane.getTabCount(); i++) {
+            Tab t = (Tab) tabbedPane.getComponentAt(i);
+            if (t.fileName.equals(result.fileName)) {
+                tabbedPane.setSelectedIndex(i);
+                if (t.area == null) {
+                    // Large file in the tree view, or not decoded yet
+                    showEditor(t);
+                }
+                state.whenLoaded(t.fileName, () -> {
+                    if (t.area == null) {
+                        return;
+                    }
+                    int end = Math.min(result.offset + result.length, t.area.getDocument().getLength());
+                    t.area.setCaretPosition(Math.min(result.offset, end));
+                    t.area.moveCaretPosition(end);
+                    // Show the selection even though the search dialog has focus
+                    t.area.getCaret().setSelectionVisible(true);
+                });
+                return;
+            }
         }
     }
 
@@ -509,6 +673,9 @@ public class MainWindow {
         tabbedPane.setTitleAt(tabbedPane.indexOfComponent(t), (f.changed() ? "*" : "") + f.name);
         // tabbedPane.setIconAt(tabbedPane.indexOfComponent(t), iconFor(f));
         tabbedPane.setForegroundAt(tabbedPane.indexOfComponent(t), colorFor(f));
+        if (t.area == null) {
+            return;
+        }
         t.area.getHighlighter().removeAllHighlights();
         if (!f.canSave() && !state.isBusy()) {
             Highlighter.HighlightPainter redPainter = new DefaultHighlighter.DefaultHighlightPainter(
@@ -547,6 +714,9 @@ public class MainWindow {
         saveStatus.setIcon(
                 !state.isBusy() && state.anyChanges() ? (state.canSave() ? Status.OK.icon : Status.ERROR.icon) : null);
         saveButton.setEnabled(state.canSave());
+        // So that we can tell whether checking keeps up with typing
+        long checkMillis = state.getLastCheckMillis();
+        saveStatus.setText(state.anyChanges() && checkMillis >= 0 ? "Checked in " + checkMillis + "ms" : "");
         Component tab = tabbedPane.getSelectedComponent();
         if (tab != null) {
             SaveFile f = state.getSaveFile(((Tab) tab).fileName);
@@ -559,12 +729,23 @@ public class MainWindow {
     }
 
     protected void attemptExit() {
-        if (confirmLoseChanges()) {
+        if (checkNotSaving() && confirmLoseChanges()) {
             state.save();
             System.exit(0);
         }
     }
 
+    // The save files must not be replaced, backed up or reloaded while they are
+    // being saved
+    protected boolean checkNotSaving() {
+        if (state.isSaving()) {
+            JOptionPane.showMessageDialog(frame, "Please wait until saving has finished.", "Saving",
+                    JOptionPane.INFORMATION_MESSAGE);
+            return false;
+        }
+        return true;
+    }
+
     protected boolean confirmLoseChanges() {
         if (state.getNumUnsavedChanges() > 0) {
             int result = JOptionPane.showConfirmDialog(frame,
@@ -610,6 +791,7 @@ public class MainWindow {
     private class Tab extends JPanel {
         private static final long serialVersionUID = 7066962308849880236L;
         private String fileName;
+        // null while the tab has no editor
         private RSyntaxTextArea area;
     }
 }
@@ -0,0 +1,141 @@
+package de.robojumper.ddsavereader.ui;
+
+import java.awt.BorderLayout;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.util.List;
+import java.util.function.Consumer;
+
+import javax.swing.DefaultListModel;
+import javax.swing.JDialog;
+import javax.swing.JFrame;
+import javax.swing.JLabel;
+import javax.swing.JList;
+import javax.swing.JScrollPane;
+import javax.swing.JTextField;
+import javax.swing.ListSelectionModel;
+import javax.swing.Timer;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+
+/**
+ * Searches all save files of the profile as you type. Selecting a result
+ * jumps to it in the editor.
+ *
+ * @author robojumper
+ */
+class SearchDialog {
+
+    private class Item {
+        final SearchIndex.Result result;
+        String text;
+
+        Item(SearchIndex.Result result) {
+            this.result = result;
+        }
+
+        @Override
+        public String toString() {
+            if (text == null) {
+                // Only files that are decoded already have text to show
+                String line = state.getLineAt(result.fileName, result.offset);
+                text = result.fileName + ": " + (line != null ? line : "offset " + result.offset);
+            }
+            return text;
+        }
+    }
+
+    private final State state;
+    private final JDialog dialog;
+    private final JTextField queryBox;
+    private final JLabel statusLabel;
+    private final DefaultListModel<Item> results = new DefaultListModel<>();
+    // Searches again once indexing is done. Large files are only indexed after
+    // the first search, so that one can't find anything in them yet.
+    private final Timer refreshTimer;
+
+    /**
+     * @param jumpTo
+     *            Called with the result the user picked
+     */
+    SearchDialog(JFrame frame, State state, Consumer<SearchIndex.Result> jumpTo) {
+        this.state = state;
+        refreshTimer = new Timer(500, e -> refresh());
+        dialog = new JDialog(frame, "Search", false);
+        dialog.setLayout(new BorderLayout());
+
+        queryBox = new JTextField();
+        queryBox.getDocument().addDocumentListener(new DocumentListener() {
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                search();
+            }
+
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                search();
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+                search();
+            }
+        });
+        queryBox.addActionListener(e -> search());
+        dialog.add(queryBox, BorderLayout.NORTH);
+
+        JList<Item> list = new JList<>(results);
+        list.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        list.addListSelectionListener(e -> {
+            if (!e.getValueIsAdjusting() && list.getSelectedValue() != null) {
+                jumpTo.accept(list.getSelectedValue().result);
+            }
+        });
+        list.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                // Jump again, even if it's already selected
+                if (e.getClickCount() == 2 && list.getSelectedValue() != null) {
+                    jumpTo.accept(list.getSelectedValue().result);
+                }
+            }
+        });
+        dialog.add(new JScrollPane(list), BorderLayout.CENTER);
+
+        statusLabel = new JLabel(" ");
+        dialog.add(statusLabel, BorderLayout.SOUTH);
+
+        dialog.setSize(500, 400);
+        dialog.setLocationRelativeTo(frame);
+    }
+
+    void show() {
+        dialog.setVisible(true);
+        queryBox.requestFocusInWindow();
+        queryBox.selectAll();
+        search();
+    }
+
+    private void search() {
+        long start = System.nanoTime();
+        List<SearchIndex.Result> found = state.search(queryBox.getText());
+        long micros = (System.nanoTime() - start) / 1000;
+        results.clear();
+        found.forEach(r -> results.addElement(new Item(r)));
+        statusLabel.setText(found.size() + (found.size() >= SearchIndex.MAX_RESULTS ? "+" : "") + " results in "
+                + micros / 1000.0 + "ms" + (state.isIndexing() ? " (still indexing)" : ""));
+        if (state.isIndexing() && !refreshTimer.isRunning()) {
+            refreshTimer.start();
+        }
+    }
+
+    private void refresh() {
+        if (!state.isIndexing()) {
+            refreshTimer.stop();
+            if (dialog.isVisible()) {
+                search();
+            }
+        }
+    }
+}
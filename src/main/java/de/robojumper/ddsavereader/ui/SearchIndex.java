@@ -0,0 +1,214 @@
+package de.robojumper.ddsavereader.ui;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
+
+/**
+ * Inverted index over the decoded text of all save files, to find field names
+ * and values across a profile without opening every file. Text is split into
+ * tokens (runs of letters, digits and _ . -), which are matched by prefix and
+ * ignoring case. # isn't part of tokens, so that "trinket" finds unhashed
+ * "###trinket..." values. Each token maps to the files and offsets it occurs
+ * at.
+ *
+ * Files are indexed on the given executor. If a file is updated again before
+ * it was indexed, only the newest version is indexed.
+ *
+ * @author robojumper
+ */
+public class SearchIndex {
+
+    public static final int MAX_RESULTS = 1000;
+
+    public static class Result {
+        public final String fileName;
+        public final int offset;
+        public final int length;
+
+        Result(String fileName, int offset, int length) {
+            this.fileName = fileName;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    // Offsets of one token in one file
+    private static class Offsets {
+        int[] offsets = new int[2];
+        int size;
+
+        void add(int offset) {
+            if (size == offsets.length) {
+                offsets = Arrays.copyOf(offsets, size * 2);
+            }
+            offsets[size++] = offset;
+        }
+    }
+
+    private final Executor executor;
+
+    // All guarded by this
+    private final TreeMap<String, Set<String>> filesByToken = new TreeMap<>();
+    private final Map<String, TreeMap<String, Offsets>> tokensByFile = new HashMap<>();
+    private final Map<String, Supplier<String>> pending = new LinkedHashMap<>();
+    private boolean indexing = false;
+    // Incremented by clear(), so that files being indexed at that time are dropped
+    private int generation = 0;
+
+    public SearchIndex(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * (Re-)indexes the file. The contents are only fetched once it is the
+     * file's turn, on the indexing thread.
+     */
+    public void update(String fileName, Supplier<String> contents) {
+        synchronized (this) {
+            pending.put(fileName, contents);
+            if (indexing) {
+                return;
+            }
+            indexing = true;
+        }
+        executor.execute(this::drain);
+    }
+
+    public synchronized void clear() {
+        generation++;
+        pending.clear();
+        filesByToken.clear();
+        tokensByFile.clear();
+    }
+
+    public synchronized boolean isIndexing() {
+        return indexing;
+    }
+
+    /**
+     * @param query
+     *            One or more words. Results are the occurrences of the first
+     *            word, in files that contain all of the words.
+     * @return At most {@link #MAX_RESULTS} results, by file and offset
+     */
+    public synchronized List<Result> search(String query) {
+        List<String> terms = new ArrayList<>();
+        tokenize(query, (token, offset) -> terms.add(token));
+        if (terms.isEmpty()) {
+            return new ArrayList<>();
+        }
+        Set<String> files = null;
+        for (String term : terms) {
+            Set<String> matching = new TreeSet<>();
+            withPrefix(filesByToken, term).values().forEach(matching::addAll);
+            if (files == null) {
+                files = matching;
+            } else {
+                files.retainAll(matching);
+            }
+        }
+        List<Result> results = new ArrayList<>();
+        for (String file : files) {
+            List<Result> inFile = new ArrayList<>();
+            for (Map.Entry<String, Offsets> e : withPrefix(tokensByFile.get(file), terms.get(0)).entrySet()) {
+                Offsets o = e.getValue();
+                for (int i = 0; i < o.size; i++) {
+                    inFile.add(new Result(file, o.offsets[i], e.getKey().length()));
+                }
+            }
+            inFile.sort((a, b) -> Integer.compare(a.offset, b.offset));
+            for (Result r : inFile) {
+                if (results.size() >= MAX_RESULTS) {
+                    return results;
+                }
+                results.add(r);
+            }
+        }
+        return results;
+    }
+
+    private static <V> NavigableMap<String, V> withPrefix(NavigableMap<String, V> map, String prefix) {
+        return map.subMap(prefix, true, prefix + Character.MAX_VALUE, false);
+    }
+
+    private void drain() {
+        while (true) {
+            String fileName;
+            Supplier<String> contents;
+            int gen;
+            synchronized (this) {
+                Iterator<Map.Entry<String, Supplier<String>>> it = pending.entrySet().iterator();
+                if (!it.hasNext()) {
+                    indexing = false;
+                    return;
+                }
+                Map.Entry<String, Supplier<String>> e = it.next();
+                it.remove();
+                fileName = e.getKey();
+                contents = e.getValue();
+                gen = generation;
+            }
+            TreeMap<String, Offsets> tokens = new TreeMap<>();
+            try {
+                tokenize(contents.get(),
+                        (token, offset) -> tokens.computeIfAbsent(token, t -> new Offsets()).add(offset));
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+                continue;
+            }
+            synchronized (this) {
+                // Skip if cleared or updated again in the meantime
+                if (gen == generation && !pending.containsKey(fileName)) {
+                    remove(fileName);
+                    tokensByFile.put(fileName, tokens);
+                    for (String token : tokens.keySet()) {
+                        filesByToken.computeIfAbsent(token, t -> new TreeSet<>()).add(fileName);
+                    }
+                }
+            }
+        }
+    }
+
+    // Guarded by this
+    private void remove(String fileName) {
+        TreeMap<String, Offsets> old = tokensByFile.remove(fileName);
+        if (old != null) {
+            for (String token : old.keySet()) {
+                Set<String> files = filesByToken.get(token);
+                files.remove(fileName);
+                if (files.isEmpty()) {
+                    filesByToken.remove(token);
+                }
+            }
+        }
+    }
+
+    private interface TokenConsumer {
+        void accept(String token, int offset);
+    }
+
+    private static void tokenize(String text, TokenConsumer consumer) {
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            char c = i < text.length() ? text.charAt(i) : ' ';
+            boolean tokenChar = Character.isLetterOrDigit(c) || c == '_' || c == '.' || c == '-';
+            if (tokenChar && start < 0) {
+                start = i;
+            } else if (!tokenChar && start >= 0) {
+                consumer.accept(text.substring(start, i).toLowerCase(), start);
+                start = -1;
+            }
+        }
+    }
+}
@@ -1,41 +1,54 @@
 package de.robojumper.ddsavereader.ui;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.StandardOpenOption;
 import java.text.ParseException;
-import java.text.SimpleDateFormat;
-import java.util.Arrays;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Date;
-import java.util.Enumeration;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Properties;
 import java.util.TreeMap;
-import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
-import java.util.stream.Collectors;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
-import java.util.zip.ZipOutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
 import javax.swing.Icon;
+import javax.swing.SwingUtilities;
 import javax.swing.SwingWorker;
 
 import de.robojumper.ddsavereader.BuildConfig;
 import de.robojumper.ddsavereader.file.DsonFile;
 import de.robojumper.ddsavereader.file.DsonFile.UnhashBehavior;
 import de.robojumper.ddsavereader.file.DsonWriter;
+import de.robojumper.ddsavereader.util.AtomicFiles;
+import de.robojumper.ddsavereader.util.BackupStore;
+import de.robojumper.ddsavereader.util.ContentHash;
 import de.robojumper.ddsavereader.util.Helpers;
 
 /* The UI State class. This class is not internally synchronized, and any 
@@ -45,6 +58,11 @@ public class State {
 
     private static final File SETTINGS_FILE = new File(Helpers.DATA_DIR, "uisettings.properties");
     private static final File BACKUP_DIR = new File(Helpers.DATA_DIR, "/backups");
+    private static final int DEFAULT_MAX_OPEN_EDITORS = 8;
+    // Milliseconds without edits before a changed file is checked
+    private static final long CHECK_DELAY = 250;
+    // Files at least this large (encoded) open in the tree viewer instead of as text
+    private static final long LARGE_FILE_SIZE = 1 << 20;
 
     public enum Status {
         OK(Resources.OK_ICON), WARNING(Resources.WARNING_ICON), ERROR(Resources.ERROR_ICON),
@@ -61,9 +79,64 @@ public class State {
         YES, NO, PENDING,
     }
 
+    /**
+     * The contents of a file as they were loaded, deflated. Only needed to
+     * discard changes, and a lot smaller than the text.
+     */
+    static class Original {
+        final byte[] deflated;
+        final int length;
+        final long hash;
+
+        Original(String contents) {
+            this.length = contents.length();
+            this.hash = ContentHash.update(ContentHash.INITIAL, contents);
+            Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(contents.length() / 8);
+            try (DeflaterOutputStream os = new DeflaterOutputStream(out, deflater)) {
+                os.write(contents.getBytes(StandardCharsets.UTF_8));
+            } catch (IOException e) {
+                // Can't happen with a ByteArrayOutputStream
+                throw new UncheckedIOException(e);
+            } finally {
+                deflater.end();
+            }
+            this.deflated = out.toByteArray();
+        }
+
+        boolean matches(String contents) {
+            return contents.length() == length && ContentHash.update(ContentHash.INITIAL, contents) == hash;
+        }
+
+        String inflate() {
+            Inflater inflater = new Inflater();
+            try (InputStream in = new InflaterInputStream(new ByteArrayInputStream(deflated), inflater)) {
+                ByteArrayOutputStream out = new ByteArrayOutputStream(length);
+                byte[] buf = new byte[1 << 16];
+                int len;
+                while ((len = in.read(buf)) >= 0) {
+                    out.write(buf, 0, len);
+                }
+                return new String(out.toByteArray(), StandardCharsets.UTF_8);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                inflater.end();
+            }
+        }
+    }
+
     public class SaveFile {
         boolean changed() {
-            return !Objects.equals(contents, originalContents);
+            return changed;
+        }
+
+        String getOriginalContents() {
+            return original.inflate();
+        }
+
+        boolean isLoaded() {
+            return contents != null;
         }
 
         boolean canSave() {
@@ -88,12 +161,23 @@ public class State {
         }
 
         String name;
+        File file;
+        long size, lastModified;
+        // null until the file is decoded, see getContents()
         String contents;
-        String originalContents;
+        Original original;
+        // Updated by changeFile(), so that changed() is cheap
+        boolean changed;
         int errorPos;
         String errorReason;
 
-        SwingWorker<CheckResult, Object> worker;
+        // The scheduled or running check of the contents, see changeFile()
+        Future<?> check;
+        // Incremented on every change, so that outdated results are ignored
+        int checkGeneration;
+
+        // Run once the file is decoded, see whenLoaded()
+        final List<Runnable> onLoaded = new ArrayList<>();
 
         private Saveability saveability = Saveability.YES;
     };
@@ -102,13 +186,54 @@ public class State {
     private String profileString;
     private Status saveStatus = Status.ERROR, gameStatus = Status.WARNING, modsStatus = Status.WARNING;
     private boolean sawGameDataPopup;
+    private int maxOpenEditors = DEFAULT_MAX_OPEN_EDITORS;
 
     private Map<String, SaveFile> files = new TreeMap<>();
 
+    private final BackupStore backups = new BackupStore(BACKUP_DIR.toPath());
+
     private String lastSheetID = "";
 
     private Consumer<String> saveStatusChangeCB;
 
+    // Decodes files in the background, in the order of this queue
+    private final Deque<SaveFile> prefetchQueue = new ArrayDeque<>();
+    private final ExecutorService prefetcher = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "Save file prefetch");
+        t.setDaemon(true);
+        return t;
+    });
+    private boolean prefetching = false;
+    // The file the prefetcher is decoding right now
+    private SaveFile prefetchingFile;
+
+    private final SearchIndex searchIndex = new SearchIndex(Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "Search index");
+        t.setDaemon(true);
+        t.setPriority(Thread.MIN_PRIORITY);
+        return t;
+    }));
+    // Large files are only indexed once somebody searches, see search()
+    private boolean largeFilesIndexed;
+
+    private boolean saving = false;
+
+    // Checks edited files one at a time, see changeFile()
+    private final ScheduledExecutorService validator = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "Save file validation");
+        t.setDaemon(true);
+        return t;
+    });
+    private long lastCheckMillis = -1;
+
+    public State() {
+    }
+
+    // For tests, without reading or writing the settings
+    State(Consumer<String> saveStatusChangeCB) {
+        this.saveStatusChangeCB = saveStatusChangeCB;
+    }
+
     public void init(Consumer<String> saveStatusChangeCB) {
         try {
             Properties prop = new Properties();
@@ -117,11 +242,22 @@ public class State {
                 SETTINGS_FILE.createNewFile();
             }
             prop.load(new FileInputStream(SETTINGS_FILE));
+            try {
+                backups.setCompression(BackupStore.Compression
+                        .valueOf(((String) prop.getOrDefault("backupCompression", "")).toUpperCase()));
+            } catch (IllegalArgumentException e) {
+                // Keep the default
+            }
             setGameDir((String) prop.getOrDefault("gameDir", ""));
             setModsDir((String) prop.getOrDefault("modsDir", ""));
             setSaveDir((String) prop.getOrDefault("saveDir", ""));
             lastSheetID = (String) prop.getOrDefault("sheetId", "");
             sawGameDataPopup = Boolean.parseBoolean((String) prop.getOrDefault("sawGameDataPopup", ""));
+            try {
+                maxOpenEditors = Math.max(1, Integer.parseInt((String) prop.getOrDefault("maxOpenEditors", "")));
+            } catch (NumberFormatException e) {
+                maxOpenEditors = DEFAULT_MAX_OPEN_EDITORS;
+            }
             this.saveStatusChangeCB = saveStatusChangeCB;
         } catch (IOException | ClassCastException e) {
             return;
@@ -141,6 +277,8 @@ public class State {
             prop.setProperty("modsDir", modsDir);
             prop.setProperty("sheetId", lastSheetID);
             prop.setProperty("sawGameDataPopup", ((Boolean) sawGameDataPopup).toString());
+            prop.setProperty("maxOpenEditors", Integer.toString(maxOpenEditors));
+            prop.setProperty("backupCompression", backups.getCompression().name().toLowerCase());
             prop.store(new FileOutputStream(SETTINGS_FILE), BuildConfig.DISPLAY_NAME + "/" + BuildConfig.VERSION);
         } catch (IOException e) {
             return;
@@ -160,7 +298,6 @@ public class State {
             this.saveDir = dir;
             if (new File(saveDir).exists()) {
                 profileString = Paths.get(saveDir).toFile().getName();
-                new File(BACKUP_DIR, profileString).mkdirs();
                 saveStatus = saveDir.matches(".*profile_[0-9]*/?") ? Status.OK : Status.WARNING;
                 loadFiles();
             } else {
@@ -170,56 +307,320 @@ public class State {
         }
     }
 
+    /**
+     * Lists the save files. They are decoded in the background, or on demand
+     * when {@link #getContents(String)} is called first.
+     */
     public void loadFiles() {
-        files.values().stream().forEach(s -> {
-            if (s.worker != null) {
-                SwingWorker<CheckResult, Object> w = s.worker;
-                s.worker = null;
-                w.cancel(true);
-            }
-        });
+        files.values().forEach(this::cancelCheck);
         files.clear();
-        SimpleDateFormat fmt = new SimpleDateFormat("HH:mm:ss");
-        System.err.println(fmt.format(new Date()) + " Start Loading Files");
+        searchIndex.clear();
         File dir = new File(saveDir);
-        Arrays.stream(dir.listFiles()).parallel().forEach(f -> {
+        for (File f : dir.listFiles()) {
             if (Helpers.isSaveFileName(f.getName())) {
-                String content;
-                try {
-                    content = new DsonFile(Files.readAllBytes(f.toPath()), UnhashBehavior.POUNDUNHASH).toString()
-                            + "\n";
-                } catch (Exception e) {
-                    content = "Error reading: " + e.getMessage();
-                }
                 SaveFile file = new SaveFile();
                 file.name = f.getName();
-                file.contents = content;
-                file.originalContents = content;
-                synchronized (files) {
-                    files.put(f.getName(), file);
+                file.file = f;
+                file.size = f.length();
+                file.lastModified = f.lastModified();
+                files.put(f.getName(), file);
+            }
+        }
+        // Files are indexed once prefetched, large files on the first search
+        largeFilesIndexed = false;
+        synchronized (prefetchQueue) {
+            prefetchQueue.clear();
+            // Large files are only decoded to text if the user asks for it
+            files.values().stream().filter(f -> f.size < LARGE_FILE_SIZE).forEach(prefetchQueue::add);
+            if (!prefetching) {
+                prefetching = true;
+                prefetcher.execute(this::prefetch);
+            }
+        }
+    }
+
+    /**
+     * @return The decoded contents of the file, decoding it right away if the
+     *         background prefetch hasn't gotten to it yet. Prefer
+     *         {@link #whenLoaded(String, Runnable)} for files that may not be
+     *         decoded yet.
+     */
+    public String getContents(String fileName) {
+        SaveFile f = getSaveFile(fileName);
+        if (!f.isLoaded()) {
+            String content = decode(f.file);
+            setContents(f, content, new Original(content));
+        }
+        return f.contents;
+    }
+
+    public boolean isLoaded(String fileName) {
+        return getSaveFile(fileName).isLoaded();
+    }
+
+    /**
+     * Runs the action once the file is decoded, right away if it already is.
+     * Otherwise, the file is decoded in the background before any other file
+     * and the action runs on the EDT afterwards. Actions are dropped if the
+     * files are reloaded in the meantime.
+     */
+    public void whenLoaded(String fileName, Runnable action) {
+        SaveFile f = getSaveFile(fileName);
+        if (f.isLoaded()) {
+            action.run();
+            return;
+        }
+        f.onLoaded.add(action);
+        synchronized (prefetchQueue) {
+            if (prefetchingFile != f) {
+                prefetchQueue.remove(f);
+                prefetchQueue.addFirst(f);
+            }
+            if (!prefetching) {
+                prefetching = true;
+                prefetcher.execute(this::prefetch);
+            }
+        }
+    }
+
+    /**
+     * @return Whether the file is too large to be edited as text comfortably
+     *         and hasn't been decoded to text yet
+     */
+    public boolean isLargeFile(String fileName) {
+        SaveFile f = getSaveFile(fileName);
+        return !f.isLoaded() && f.size >= LARGE_FILE_SIZE;
+    }
+
+    /**
+     * Decodes the file in the background without turning it into text, for
+     * browsing large files.
+     *
+     * @param onDone
+     *            Called on the EDT with the file, or null if it couldn't be
+     *            decoded. Not called if the files are reloaded in the meantime.
+     */
+    public void loadDsonFile(String fileName, Consumer<DsonFile> onDone) {
+        SaveFile f = getSaveFile(fileName);
+        new SwingWorker<DsonFile, Void>() {
+            @Override
+            protected DsonFile doInBackground() throws IOException, ParseException {
+                return new DsonFile(Files.readAllBytes(f.file.toPath()), UnhashBehavior.POUNDUNHASH);
+            }
+
+            @Override
+            protected void done() {
+                if (files.get(f.name) != f) {
+                    return;
+                }
+                DsonFile result;
+                try {
+                    result = get();
+                } catch (InterruptedException | ExecutionException e) {
+                    e.printStackTrace();
+                    result = null;
                 }
+                onDone.accept(result);
             }
-        });
-        System.err.println(fmt.format(new Date()) + " End Loading Files");
+        }.execute();
+    }
+
+    /**
+     * Moves the files next to the given one (in tab order) to the front of the
+     * prefetch queue, as they are the most likely to be opened next.
+     */
+    public void prefetchAround(String fileName) {
+        String next = ((TreeMap<String, SaveFile>) files).higherKey(fileName);
+        String prev = ((TreeMap<String, SaveFile>) files).lowerKey(fileName);
+        synchronized (prefetchQueue) {
+            for (String n : new String[] { prev, next }) {
+                SaveFile f = n != null ? files.get(n) : null;
+                if (f != null && prefetchQueue.remove(f)) {
+                    prefetchQueue.addFirst(f);
+                }
+            }
+        }
+    }
+
+    private void prefetch() {
+        while (true) {
+            SaveFile f;
+            synchronized (prefetchQueue) {
+                f = prefetchQueue.pollFirst();
+                prefetchingFile = f;
+                if (f == null) {
+                    prefetching = false;
+                    return;
+                }
+            }
+            String content = decode(f.file);
+            Original original = new Original(content);
+            SwingUtilities.invokeLater(() -> {
+                // Drop the result if the files were reloaded in the meantime
+                if (files.get(f.name) != f) {
+                    return;
+                }
+                if (!f.isLoaded()) {
+                    setContents(f, content, original);
+                    if (saveStatusChangeCB != null) {
+                        saveStatusChangeCB.accept(f.name);
+                    }
+                }
+                List<Runnable> actions = new ArrayList<>(f.onLoaded);
+                f.onLoaded.clear();
+                actions.forEach(Runnable::run);
+            });
+        }
+    }
+
+    private void setContents(SaveFile f, String content, Original original) {
+        f.contents = content;
+        f.original = original;
+        f.changed = false;
+        searchIndex.update(f.name, () -> content);
+    }
+
+    private static String decode(File f) {
+        try {
+            return new DsonFile(Files.readAllBytes(f.toPath()), UnhashBehavior.POUNDUNHASH).toString() + "\n";
+        } catch (Exception e) {
+            return "Error reading: " + e.getMessage();
+        }
+    }
+
+    public static class SaveResult {
+        public final int numFiles;
+        public final long encodeMillis, writeMillis;
+        // null if all files were saved
+        public final String error;
+
+        SaveResult(int numFiles, long encodeMillis, long writeMillis, String error) {
+            this.numFiles = numFiles;
+            this.encodeMillis = encodeMillis;
+            this.writeMillis = writeMillis;
+            this.error = error;
+        }
     }
 
-    public void saveChanges() {
-        SimpleDateFormat fmt = new SimpleDateFormat("HH:mm:ss");
-        System.err.println(fmt.format(new Date()) + " Start Saving Files");
-        files.entrySet().parallelStream().filter(f -> f.getValue().changed() && f.getValue().canSave()).forEach(f -> {
+    /**
+     * Saves all changed files in the background. Either all files are
+     * replaced or none are: they are encoded and verified into temp files
+     * first, and only then renamed into place. If a rename fails, the files
+     * already replaced get their old contents back (see
+     * {@link AtomicFiles#commit(Map)}). Saved files count as unchanged
+     * afterwards, unless they were edited while saving.
+     *
+     * @param progress
+     *            Called on the EDT with a status message
+     * @param done
+     *            Called on the EDT once the files are saved, or saving failed
+     */
+    public void saveChanges(Consumer<String> progress, Consumer<SaveResult> done) {
+        Map<String, String> toSave = new TreeMap<>();
+        files.values().stream().filter(f -> f.changed() && f.canSave()).forEach(f -> toSave.put(f.name, f.contents));
+        saving = true;
+        new SaveInBackground(Paths.get(saveDir), toSave, progress, done).execute();
+    }
+
+    class SaveInBackground extends SwingWorker<SaveResult, String> {
+        final Path dir;
+        // Sorted, so that files are always replaced in the same order
+        final Map<String, String> toSave;
+        final Consumer<String> progress;
+        final Consumer<SaveResult> onDone;
+
+        SaveInBackground(Path dir, Map<String, String> toSave, Consumer<String> progress,
+                Consumer<SaveResult> onDone) {
+            this.dir = dir;
+            this.toSave = toSave;
+            this.progress = progress;
+            this.onDone = onDone;
+        }
+
+        @Override
+        protected SaveResult doInBackground() {
+            long start = System.nanoTime();
+            Map<String, Path> temps = new ConcurrentHashMap<>();
+            Map<String, String> errors = new ConcurrentSkipListMap<>();
+            AtomicInteger numEncoded = new AtomicInteger();
+            toSave.entrySet().parallelStream().forEach(e -> {
+                try {
+                    byte[] data = new DsonWriter(e.getValue()).bytes();
+                    // Don't write anything the game couldn't read back
+                    new DsonFile(data, UnhashBehavior.NONE);
+                    temps.put(e.getKey(), AtomicFiles.writeTemp(dir.resolve(e.getKey()), data));
+                    publish("Encoded " + numEncoded.incrementAndGet() + "/" + toSave.size() + " files");
+                } catch (Exception ex) {
+                    ex.printStackTrace();
+                    errors.put(e.getKey(), String.valueOf(ex.getMessage()).split("\n")[0]);
+                }
+            });
+            long encoded = System.nanoTime();
+            if (!errors.isEmpty()) {
+                temps.values().forEach(AtomicFiles::deleteQuietly);
+                Map.Entry<String, String> first = errors.entrySet().iterator().next();
+                return new SaveResult(0, millisBetween(start, encoded), 0,
+                        "Could not save " + first.getKey() + ": " + first.getValue());
+            }
+            publish("Writing " + toSave.size() + " files");
+            Map<Path, Path> renames = new LinkedHashMap<>();
+            toSave.keySet().forEach(name -> renames.put(temps.get(name), dir.resolve(name)));
             try {
-                Files.write(Paths.get(saveDir, f.getKey()), new DsonWriter(f.getValue().contents).bytes(),
-                        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.CREATE);
+                AtomicFiles.commit(renames);
             } catch (IOException e) {
                 e.printStackTrace();
-            } catch (ParseException e) {
-                System.err.println("ERROR!!! canSave() returns true but saving fails for " + f.getKey());
-                e.printStackTrace();
-            } catch (InterruptedException e) {
-                e.printStackTrace();
+                StringBuilder error = new StringBuilder("Could not write files: " + e.getMessage());
+                if (e.getSuppressed().length == 0) {
+                    error.append("\nNo file was changed.");
+                }
+                for (Throwable restoreFailed : e.getSuppressed()) {
+                    error.append("\n").append(restoreFailed.getMessage());
+                }
+                return new SaveResult(0, millisBetween(start, encoded), millisBetween(encoded, System.nanoTime()),
+                        error.toString());
             }
-        });
-        System.err.println(fmt.format(new Date()) + " End Saving Files");
+            return new SaveResult(toSave.size(), millisBetween(start, encoded),
+                    millisBetween(encoded, System.nanoTime()), null);
+        }
+
+        @Override
+        protected void process(List<String> chunks) {
+            progress.accept(chunks.get(chunks.size() - 1));
+        }
+
+        @Override
+        protected void done() {
+            saving = false;
+            SaveResult result;
+            try {
+                result = get();
+            } catch (InterruptedException | ExecutionException e) {
+                result = new SaveResult(0, 0, 0, "Saving failed: " + e.getMessage());
+            }
+            if (result.error == null) {
+                toSave.forEach((name, contents) -> {
+                    SaveFile f = files.get(name);
+                    if (f != null) {
+                        f.original = new Original(contents);
+                        // Usually the very same string, unless edited while saving
+                        f.changed = f.contents != contents && !f.original.matches(f.contents);
+                        if (!f.changed()) {
+                            cancelCheck(f);
+                            f.saveability = Saveability.YES;
+                        }
+                    }
+                });
+                System.err.println("Saved " + result.numFiles + " files (encoding " + result.encodeMillis
+                        + "ms, writing " + result.writeMillis + "ms)");
+            } else {
+                System.err.println(result.error);
+            }
+            onDone.accept(result);
+        }
+    }
+
+    private static long millisBetween(long startNanos, long endNanos) {
+        return TimeUnit.NANOSECONDS.toMillis(endNanos - startNanos);
     }
 
     public void setGameDir(String dir) {
@@ -243,15 +644,19 @@ public class State {
         * if (f.contents.equals(contents)) { return; }
         */
 
-        f.contents = contents;
-        if (f.worker != null) {
-            SwingWorker<CheckResult, Object> w = f.worker;
-            f.worker = null;
-            w.cancel(true);
+        if (!f.isLoaded()) {
+            getContents(file);
         }
+        f.contents = contents;
+        f.changed = !f.original.matches(contents);
+        searchIndex.update(file, () -> contents);
+        cancelCheck(f);
         if (f.changed()) {
-            f.worker = new CheckInBackground(file, f.contents);
-            f.worker.execute();
+            // Wait for a pause in typing, then check only the latest contents
+            int generation = f.checkGeneration;
+            long changedAt = System.nanoTime();
+            f.check = validator.schedule(() -> check(f, contents, generation, changedAt), CHECK_DELAY,
+                    TimeUnit.MILLISECONDS);
             f.saveability = Saveability.PENDING;
         } else {
             f.saveability = Saveability.YES;
@@ -274,71 +679,65 @@ public class State {
         }
     }
 
-    class CheckInBackground extends SwingWorker<CheckResult, Object> {
-        String contents, file;
-
-        public CheckInBackground(String f, String c) {
-            this.file = f;
-            this.contents = c;
-        }
-
-        private CheckResult check() {
-            try {
-                new DsonWriter(contents).bytes();
-                return new CheckResult(file, true, 0, "");
-            } catch (InterruptedException e) {
-                return null;
-            } catch (Exception e) {
-                int errorPos = 0;
-                if (e instanceof ParseException) {
-                    errorPos = ((ParseException) e).getErrorOffset();
-                }
-                return new CheckResult(file, false, errorPos, e.getMessage().split("\n")[0]);
+    // Runs on the validator thread
+    private void check(SaveFile f, String contents, int generation, long changedAt) {
+        CheckResult result;
+        try {
+            new DsonWriter(contents).bytes();
+            result = new CheckResult(f.name, true, 0, "");
+        } catch (InterruptedException e) {
+            // Changed again, the check of the newer contents is already scheduled
+            return;
+        } catch (Exception e) {
+            int errorPos = 0;
+            if (e instanceof ParseException) {
+                errorPos = ((ParseException) e).getErrorOffset();
             }
+            result = new CheckResult(f.name, false, errorPos, String.valueOf(e.getMessage()).split("\n")[0]);
         }
-
-        @Override
-        public CheckResult doInBackground() {
-            return check();
-        }
-
-        @Override
-        protected void done() {
-            /*
-            * There are two ways for `done` to be called:
-            * 1) The computation completes, and Swing enqueues the `done` call onto the event dispatch queue.
-            *    Thus, the we are on the EDT now and there are no synchronization issues.
-            * 2) The `cancel` method is called. This can immediately call `done`. As a result,
-            *    `cancel` must only be called on the EDT. This corresponds to the requirement that
-            *    users of this class must only access this on the EDT.
-            */
-            CheckResult result = null;
-            try {
-                result = get();
-            } catch (InterruptedException | ExecutionException | CancellationException e) {
-            }
-            if (result == null)
+        long latency = millisBetween(changedAt, System.nanoTime());
+        CheckResult r = result;
+        SwingUtilities.invokeLater(() -> {
+            if (files.get(f.name) != f || f.checkGeneration != generation) {
                 return;
-
-            SaveFile file = files.get(result.file);
-            if (file == null || file.worker != this)
-                return;
-
-            file.worker = null;
-            if (result.success) {
-                file.saveability = Saveability.YES;
+            }
+            f.check = null;
+            lastCheckMillis = latency;
+            if (r.success) {
+                f.saveability = Saveability.YES;
             } else {
-                file.saveability = Saveability.NO;
-                file.errorPos = result.errorPos;
-                file.errorReason = result.errorReason;
+                f.saveability = Saveability.NO;
+                f.errorPos = r.errorPos;
+                f.errorReason = r.errorReason;
             }
+            saveStatusChangeCB.accept(f.name);
+        });
+    }
 
-            saveStatusChangeCB.accept(result.file);
+    private void cancelCheck(SaveFile f) {
+        f.checkGeneration++;
+        if (f.check != null) {
+            // Interrupts the encoder if it's already running
+            f.check.cancel(true);
+            f.check = null;
         }
     }
 
+    /**
+     * @return Time from the last edit until its check finished, for the most
+     *         recent check, or -1 if nothing was checked yet
+     */
+    public long getLastCheckMillis() {
+        return lastCheckMillis;
+    }
+
     public boolean canSave() {
-        return files.values().stream().filter(s -> s.changed() && !s.canSave()).count() == 0 && anyChanges();
+        return !saving && files.values().stream().filter(s -> s.changed() && !s.canSave()).count() == 0
+                && anyChanges();
+    }
+
+    public boolean isSaving() {
+        return saving;
     }
 
     public boolean isBusy() {
@@ -381,6 +780,41 @@ public class State {
         return files.values();
     }
 
+    /**
+     * Searches the decoded text of all save files, see {@link SearchIndex}.
+     * Files that are still being indexed may be missing from the results.
+     * Large files that aren't open are only decoded for the index after the
+     * first search, so that nobody pays for them who doesn't search.
+     */
+    public List<SearchIndex.Result> search(String query) {
+        List<SearchIndex.Result> results = searchIndex.search(query);
+        if (!largeFilesIndexed) {
+            largeFilesIndexed = true;
+            // Only decoded to text for the index, the text isn't kept
+            files.values().stream().filter(f -> !f.isLoaded() && f.size >= LARGE_FILE_SIZE)
+                    .forEach(f -> searchIndex.update(f.name, () -> decode(f.file)));
+        }
+        return results;
+    }
+
+    public boolean isIndexing() {
+        return searchIndex.isIndexing();
+    }
+
+    /**
+     * @return The line of the file around the offset, or null if the file
+     *         isn't decoded yet
+     */
+    public String getLineAt(String fileName, int offset) {
+        SaveFile f = files.get(fileName);
+        if (f == null || !f.isLoaded() || offset > f.contents.length()) {
+            return null;
+        }
+        int start = f.contents.lastIndexOf('\n', offset - 1) + 1;
+        int end = f.contents.indexOf('\n', offset);
+        return f.contents.substring(start, end < 0 ? f.contents.length() : end).trim();
+    }
+
     public SaveFile getSaveFile(String fileName) {
         if (!files.containsKey(fileName)) {
             throw new RuntimeException();
@@ -388,6 +822,14 @@ public class State {
         return files.get(fileName);
     }
 
+    /**
+     * @return How many editor tabs without unsaved changes are kept around
+     *         before the least recently shown ones are disposed
+     */
+    public int getMaxOpenEditors() {
+        return maxOpenEditors;
+    }
+
     public boolean sawGameDataPopup() {
         return sawGameDataPopup;
     }
@@ -397,75 +839,78 @@ public class State {
     }
 
     public boolean hasBackup(String name) {
-        return Paths.get(BACKUP_DIR.getAbsolutePath(), profileString, name + ".zip").toFile().exists();
+        return backups.exists(profileString, name);
     }
 
     public boolean hasAnyBackups() {
         if (profileString != null) {
-            return new File(BACKUP_DIR, profileString).list((dir, name) -> name.endsWith(".zip")).length > 0;
+            return !backups.list(profileString).isEmpty();
         }
         return false;
     }
 
     public boolean makeBackup(String name) {
-        // Most simple Box type I could find
-        AtomicBoolean success = new AtomicBoolean(true);
-        try (FileOutputStream fos = new FileOutputStream(
-                Paths.get(BACKUP_DIR.getAbsolutePath(), profileString, name + ".zip").toFile());
-                ZipOutputStream zos = new ZipOutputStream(fos, StandardCharsets.UTF_8)) {
-
-            Arrays.stream(new File(saveDir).listFiles()).forEach(f -> {
-                if (Helpers.isSaveFileName(f.getName())) {
-                    try {
-                        ZipEntry z = new ZipEntry(f.getName());
-                        zos.putNextEntry(z);
-                        zos.write(Files.readAllBytes(f.toPath()));
-                        zos.closeEntry();
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                        success.set(false);
-                    }
-                }
-            });
+        try {
+            backups.create(profileString, name, Paths.get(saveDir));
+            return true;
         } catch (IOException e) {
             e.printStackTrace();
-            success.set(false);
+            return false;
         }
-        return success.get();
     }
 
-    public Collection<String> getBackupNames() {
-        return Arrays.stream(new File(BACKUP_DIR, profileString).listFiles())
-                .filter((f) -> f.getName().endsWith(".zip"))
-                .sorted((a, b) -> (int) (b.lastModified() - a.lastModified()))
-                .map(s -> s.getName().replaceAll("\\.zip", "")).collect(Collectors.toList());
-    }
-
-    public void restoreBackup(String result) {
-        File f = Paths.get(BACKUP_DIR.getAbsolutePath(), profileString, result + ".zip").toFile();
-        System.err.println(f);
-        try (ZipFile zipFile = new ZipFile(f)) {
-
-            clear(new File(saveDir), false);
-            Enumeration<? extends ZipEntry> entries = zipFile.entries();
-
-            while (entries.hasMoreElements()) {
-                ZipEntry entry = entries.nextElement();
-                if (!entry.isDirectory()) {
-                    InputStream stream = zipFile.getInputStream(entry);
-                    ByteArrayOutputStream os = new ByteArrayOutputStream();
-                    byte[] bytes = new byte[1024];
-                    int length;
-                    while ((length = stream.read(bytes)) >= 0) {
-                        os.write(bytes, 0, length);
+    /**
+     * Copies the zip backups made by older versions into the backup store, in
+     * the background. The zips are kept.
+     *
+     * @param onDone
+     *            Called on the EDT if any backups were imported
+     */
+    public void importZipBackups(Runnable onDone) {
+        if (profileString == null) {
+            return;
+        }
+        String profile = profileString;
+        new SwingWorker<Integer, Void>() {
+            @Override
+            protected Integer doInBackground() throws IOException {
+                return backups.importZips(profile);
+            }
+
+            @Override
+            protected void done() {
+                try {
+                    if (get() > 0) {
+                        onDone.run();
                     }
-                    Files.write(Paths.get(saveDir, entry.getName()), os.toByteArray(), StandardOpenOption.CREATE,
-                            StandardOpenOption.TRUNCATE_EXISTING);
+                } catch (InterruptedException | ExecutionException e) {
+                    e.printStackTrace();
                 }
             }
+        }.execute();
+    }
+
+    public Collection<String> getBackupNames() {
+        return backups.list(profileString);
+    }
+
+    /**
+     * @return false if the backup couldn't be restored, in which case the save
+     *         files weren't changed
+     */
+    public boolean restoreBackup(String result) {
+        try {
+            backups.restore(profileString, result, Paths.get(saveDir), (fileName, data) -> {
+                try {
+                    new DsonFile(data, UnhashBehavior.NONE);
+                } catch (ParseException | RuntimeException e) {
+                    throw new IOException("Not a valid save file", e);
+                }
+            });
+            return true;
         } catch (IOException e) {
             e.printStackTrace();
-            System.err.println(e.getMessage());
+            return false;
         }
     }
 
@@ -476,27 +921,4 @@ public class State {
             return BACKUP_DIR.getAbsolutePath();
         }
     }
-
-    private void clear(File f, boolean deleteSelf) {
-        if (f.exists()) {
-            if (f.isDirectory()) {
-                String[] strFiles = f.list();
-
-                for (String strFilename : strFiles) {
-                    File fileToDelete = new File(f, strFilename);
-                    clear(fileToDelete);
-                }
-                if (f.list().length == 0 && deleteSelf) {
-                    f.delete();
-                }
-
-            } else {
-                f.delete();
-            }
-        }
-    }
-
-    private void clear(File f) {
-        clear(f, true);
-    }
 }
@@ -0,0 +1,144 @@
+package de.robojumper.ddsavereader.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Replaces files so that a crash, or the game reading at the same time, never
+ * sees a half written file: the new contents go to a temp file in the same
+ * directory, which is flushed to disk and then renamed over the old file.
+ *
+ * @author robojumper
+ */
+public class AtomicFiles {
+
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    /**
+     * Writes the data to a new temp file next to the target and flushes it to
+     * disk. The temp file name doesn't look like a save file, so file watchers
+     * ignore it.
+     *
+     * @return The temp file, to be passed to {@link #commit(Map)}
+     */
+    public static Path writeTemp(Path target, byte[] data) throws IOException {
+        Path temp = createTemp(target);
+        try (FileChannel ch = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+            ByteBuffer buf = ByteBuffer.wrap(data);
+            while (buf.hasRemaining()) {
+                ch.write(buf);
+            }
+            ch.force(true);
+        } catch (IOException e) {
+            deleteQuietly(temp);
+            throw e;
+        }
+        return temp;
+    }
+
+    /**
+     * @return A new, empty file next to the target
+     */
+    public static Path createTemp(Path target) throws IOException {
+        return Files.createTempFile(target.toAbsolutePath().getParent(), "." + target.getFileName(), TEMP_SUFFIX);
+    }
+
+    /**
+     * Renames each temp file over its target, in the iteration order of the
+     * map, then flushes the directories. The old contents of every target are
+     * kept aside until all renames are done: if one fails (say, the game has
+     * the file open on Windows), the targets that were already replaced get
+     * their old contents back, so either all targets are replaced or none.
+     *
+     * @param temps
+     *            Temp file to target
+     * @throws IOException
+     *             If a rename failed. If a target couldn't be restored either,
+     *             the suppressed exceptions say where its old contents are.
+     */
+    public static void commit(Map<Path, Path> temps) throws IOException {
+        // Target -> copy of its old contents, or null if it didn't exist
+        Map<Path, Path> originals = new LinkedHashMap<>();
+        Set<Path> dirs = new HashSet<>();
+        try {
+            for (Map.Entry<Path, Path> e : temps.entrySet()) {
+                Path target = e.getValue();
+                originals.put(target, Files.exists(target) ? keepOriginal(target) : null);
+                move(e.getKey(), target);
+                dirs.add(target.toAbsolutePath().getParent());
+            }
+        } catch (IOException e) {
+            for (Map.Entry<Path, Path> o : originals.entrySet()) {
+                try {
+                    if (o.getValue() != null) {
+                        move(o.getValue(), o.getKey());
+                    } else {
+                        Files.deleteIfExists(o.getKey());
+                    }
+                } catch (IOException restoreFailed) {
+                    e.addSuppressed(new IOException(o.getValue() != null
+                            ? "Could not restore " + o.getKey() + ", its old contents are in " + o.getValue()
+                            : "Could not delete new file " + o.getKey(), restoreFailed));
+                    // Don't delete the only copy
+                    o.setValue(null);
+                }
+            }
+            throw e;
+        } finally {
+            temps.keySet().forEach(AtomicFiles::deleteQuietly);
+            originals.values().stream().filter(o -> o != null).forEach(AtomicFiles::deleteQuietly);
+        }
+        for (Path dir : dirs) {
+            syncDirectory(dir);
+        }
+    }
+
+    // A hard link keeps the old contents when the target is renamed over,
+    // without copying them
+    private static Path keepOriginal(Path target) throws IOException {
+        Path original = createTemp(target);
+        try {
+            Files.delete(original);
+            Files.createLink(original, target);
+        } catch (IOException | UnsupportedOperationException e) {
+            Files.copy(target, original, StandardCopyOption.REPLACE_EXISTING);
+        }
+        return original;
+    }
+
+    private static void move(Path from, Path to) throws IOException {
+        try {
+            Files.move(from, to, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(from, to, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Makes renames in the directory durable. Not possible on all platforms
+     * (Windows can't open directories), in which case this does nothing.
+     */
+    public static void syncDirectory(Path dir) {
+        try (FileChannel ch = FileChannel.open(dir, StandardOpenOption.READ)) {
+            ch.force(true);
+        } catch (IOException e) {
+        }
+    }
+
+    public static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+        }
+    }
+}
@@ -0,0 +1,506 @@
+package de.robojumper.ddsavereader.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Stores backups of save directories so that every distinct file content is
+ * only kept once. File contents are compressed and stored under
+ * objects/ab/cdef..., named by their SHA-256. A backup is a small manifest
+ * (profile/name.backup) listing file name, size and hash of every save file.
+ * Making a backup of a directory where only a few files changed thus only
+ * stores those few files.
+ *
+ * To avoid hashing and compressing unchanged files again, the store remembers
+ * size, a fast {@link ContentHash} and the SHA-256 of every file it backed up.
+ * Unchanged files are still read, as modification times can't be relied on.
+ *
+ * @author robojumper
+ */
+public class BackupStore {
+
+    private static final String MANIFEST_EXT = ".backup";
+    private static final String ZIP_EXT = ".zip";
+    private static final String OBJECTS_DIR = "objects";
+    private static final String INDEX_FILE = "index";
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    public static class Entry {
+        public final String fileName;
+        public final String hash;
+        public final long size;
+
+        Entry(String fileName, String hash, long size) {
+            this.fileName = fileName;
+            this.hash = hash;
+            this.size = size;
+        }
+    }
+
+    private static class Stat {
+        final long size, contentHash;
+        final String hash;
+
+        Stat(long size, long contentHash, String hash) {
+            this.size = size;
+            this.contentHash = contentHash;
+            this.hash = hash;
+        }
+    }
+
+    /**
+     * How hard to compress file contents. Doesn't affect reading, so it can be
+     * changed at any time.
+     */
+    public enum Compression {
+        STORE(Deflater.NO_COMPRESSION), FAST(Deflater.BEST_SPEED), MAX(Deflater.BEST_COMPRESSION);
+
+        final int level;
+
+        Compression(int level) {
+            this.level = level;
+        }
+    }
+
+    private final Path root;
+    // By absolute path, loaded on first use
+    private Map<String, Stat> index;
+    private volatile Compression compression = Compression.FAST;
+
+    public BackupStore(Path root) {
+        this.root = root;
+    }
+
+    public void setCompression(Compression compression) {
+        this.compression = compression;
+    }
+
+    public Compression getCompression() {
+        return compression;
+    }
+
+    public synchronized boolean exists(String profile, String name) {
+        return Files.exists(manifestPath(profile, name));
+    }
+
+    /**
+     * @return The names of all backups of the profile, newest first
+     */
+    public synchronized List<String> list(String profile) {
+        Path dir = root.resolve(profile);
+        if (!Files.isDirectory(dir)) {
+            return Collections.emptyList();
+        }
+        Map<String, FileTime> times = new HashMap<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*" + MANIFEST_EXT)) {
+            for (Path f : files) {
+                String name = f.getFileName().toString();
+                times.put(name.substring(0, name.length() - MANIFEST_EXT.length()), Files.getLastModifiedTime(f));
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return times.keySet().stream().sorted(Comparator.comparing(times::get, Comparator.reverseOrder()))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Backs up all save files in the directory, replacing the backup with
+     * the same name if there is one.
+     */
+    public synchronized void create(String profile, String name, Path saveDir) throws IOException {
+        loadIndex();
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> dir = Files.newDirectoryStream(saveDir,
+                f -> Helpers.isSaveFileName(f.getFileName().toString()) && Files.isRegularFile(f))) {
+            dir.forEach(files::add);
+        }
+        // Files are hashed and compressed concurrently
+        List<Entry> entries;
+        try {
+            entries = files.parallelStream().map(f -> {
+                try {
+                    return store(f);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }).collect(Collectors.toList());
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        boolean replaced = exists(profile, name);
+        writeManifest(profile, name, entries);
+        saveIndex();
+        if (replaced) {
+            prune();
+        }
+    }
+
+    /**
+     * @return The files in the backup, by file name
+     */
+    public synchronized List<Entry> getEntries(String profile, String name) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        for (String line : Files.readAllLines(manifestPath(profile, name), StandardCharsets.UTF_8)) {
+            // hash size name, the name may contain spaces
+            String[] parts = line.split(" ", 3);
+            if (parts.length == 3) {
+                entries.add(new Entry(parts[2], parts[0], Long.parseLong(parts[1])));
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * @return A stream of the uncompressed contents of the stored file
+     */
+    public InputStream open(Entry entry) throws IOException {
+        return new InflaterInputStream(Files.newInputStream(objectPath(entry.hash)), new Inflater(), BUFFER_SIZE);
+    }
+
+    /**
+     * Checks a restored file before it replaces the save file.
+     */
+    public interface Verifier {
+        /**
+         * @throws IOException
+         *             If the file shouldn't be restored
+         */
+        void verify(String fileName, ByteBuffer data) throws IOException;
+    }
+
+    public void restore(String profile, String name, Path saveDir) throws IOException {
+        restore(profile, name, saveDir, null);
+    }
+
+    /**
+     * Replaces the save files in the directory with the ones in the backup.
+     * Save files that aren't part of the backup are deleted. All files are
+     * decompressed in parallel into temp files and checked first; if any of
+     * them fails, the save directory isn't touched.
+     *
+     * @param verifier
+     *            May be null
+     */
+    public synchronized void restore(String profile, String name, Path saveDir, Verifier verifier)
+            throws IOException {
+        List<Entry> entries = getEntries(profile, name);
+        Map<String, Path> temps = new ConcurrentHashMap<>();
+        Map<String, IOException> errors = new ConcurrentSkipListMap<>();
+        entries.parallelStream().forEach(e -> {
+            try {
+                temps.put(e.fileName, extract(e, saveDir.resolve(e.fileName), verifier));
+            } catch (IOException ex) {
+                errors.put(e.fileName, ex);
+            }
+        });
+        if (!errors.isEmpty()) {
+            temps.values().forEach(AtomicFiles::deleteQuietly);
+            Map.Entry<String, IOException> first = errors.entrySet().iterator().next();
+            throw new IOException("Could not restore " + first.getKey() + ": " + first.getValue().getMessage(),
+                    first.getValue());
+        }
+        // The manifest is sorted, so files are always replaced in the same order
+        Map<Path, Path> renames = new LinkedHashMap<>();
+        entries.forEach(e -> renames.put(temps.get(e.fileName), saveDir.resolve(e.fileName)));
+        AtomicFiles.commit(renames);
+        deleteOtherSaveFiles(saveDir, entries);
+    }
+
+    /**
+     * @return A temp file next to the target with the contents of the entry
+     */
+    private Path extract(Entry e, Path target, Verifier verifier) throws IOException {
+        Path temp = AtomicFiles.createTemp(target);
+        try {
+            MessageDigest digest = sha256();
+            try (InputStream in = new DigestInputStream(open(e), digest);
+                    FileChannel out = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                byte[] buf = new byte[BUFFER_SIZE];
+                int len;
+                while ((len = in.read(buf)) >= 0) {
+                    ByteBuffer b = ByteBuffer.wrap(buf, 0, len);
+                    while (b.hasRemaining()) {
+                        out.write(b);
+                    }
+                }
+                out.force(true);
+            }
+            if (!toHex(digest.digest()).equals(e.hash)) {
+                throw new IOException("Stored file is corrupt");
+            }
+            if (verifier != null) {
+                // Check what actually ended up on disk
+                try (FileChannel in = FileChannel.open(temp, StandardOpenOption.READ)) {
+                    ByteBuffer data = ByteBuffer.allocate((int) in.size());
+                    while (data.hasRemaining() && in.read(data) >= 0) {
+                    }
+                    data.flip();
+                    verifier.verify(e.fileName, data);
+                }
+            }
+            return temp;
+        } catch (IOException ex) {
+            AtomicFiles.deleteQuietly(temp);
+            throw ex;
+        }
+    }
+
+    /**
+     * Deletes the backup. Its file contents stay around until
+     * {@link #prune()} finds that no other backup refers to them.
+     */
+    public synchronized void delete(String profile, String name) throws IOException {
+        Files.deleteIfExists(manifestPath(profile, name));
+    }
+
+    /**
+     * Counts the references to every stored file content from all manifests
+     * of all profiles, and deletes the ones that nobody refers to.
+     *
+     * @return The number of bytes freed
+     */
+    public synchronized long prune() throws IOException {
+        Map<String, Integer> refs = new HashMap<>();
+        try (DirectoryStream<Path> profiles = Files.newDirectoryStream(root, Files::isDirectory)) {
+            for (Path profile : profiles) {
+                if (profile.getFileName().toString().equals(OBJECTS_DIR)) {
+                    continue;
+                }
+                for (String name : list(profile.getFileName().toString())) {
+                    for (Entry e : getEntries(profile.getFileName().toString(), name)) {
+                        refs.merge(e.hash, 1, Integer::sum);
+                    }
+                }
+            }
+        }
+        long freed = 0;
+        Path objects = root.resolve(OBJECTS_DIR);
+        if (!Files.isDirectory(objects)) {
+            return 0;
+        }
+        List<Path> unreferenced;
+        try (Stream<Path> files = Files.walk(objects, 2)) {
+            unreferenced = files.filter(Files::isRegularFile)
+                    .filter(f -> !refs.containsKey(f.getParent().getFileName().toString() + f.getFileName()))
+                    .collect(Collectors.toList());
+        }
+        for (Path f : unreferenced) {
+            freed += Files.size(f);
+            Files.delete(f);
+        }
+        if (index != null && index.values().removeIf(s -> !refs.containsKey(s.hash))) {
+            saveIndex();
+        }
+        return freed;
+    }
+
+    /**
+     * Copies the old one-zip-per-backup backups of the profile into the store.
+     * The zips are kept, zips that have a backup of the same name already are
+     * skipped. Only holds the lock for one zip at a time, so this may run in
+     * the background.
+     *
+     * @return The number of imported backups
+     */
+    public int importZips(String profile) throws IOException {
+        Path dir = root.resolve(profile);
+        if (!Files.isDirectory(dir)) {
+            return 0;
+        }
+        List<Path> zips = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*" + ZIP_EXT)) {
+            files.forEach(zips::add);
+        }
+        int imported = 0;
+        for (Path zip : zips) {
+            String zipName = zip.getFileName().toString();
+            if (importZip(profile, zipName.substring(0, zipName.length() - ZIP_EXT.length()), zip)) {
+                imported++;
+            }
+        }
+        return imported;
+    }
+
+    private synchronized boolean importZip(String profile, String name, Path zip) throws IOException {
+        if (exists(profile, name)) {
+            return false;
+        }
+        List<Entry> entries = new ArrayList<>();
+        try (ZipFile zipFile = new ZipFile(zip.toFile())) {
+            for (ZipEntry z : Collections.list(zipFile.entries())) {
+                if (!z.isDirectory()) {
+                    try (InputStream in = zipFile.getInputStream(z)) {
+                        byte[] data = readAll(in);
+                        entries.add(new Entry(z.getName(), storeObject(data), data.length));
+                    }
+                }
+            }
+        }
+        writeManifest(profile, name, entries);
+        // Keep the backup's place when sorting by date
+        Files.setLastModifiedTime(manifestPath(profile, name), Files.getLastModifiedTime(zip));
+        return true;
+    }
+
+    private Entry store(Path file) throws IOException {
+        String key = file.toAbsolutePath().toString();
+        byte[] data = Files.readAllBytes(file);
+        long contentHash = ContentHash.update(ContentHash.INITIAL, data, 0, data.length);
+        Stat s = index.get(key);
+        if (s != null && s.size == data.length && s.contentHash == contentHash && Files.exists(objectPath(s.hash))) {
+            return new Entry(file.getFileName().toString(), s.hash, data.length);
+        }
+        String hash = storeObject(data);
+        index.put(key, new Stat(data.length, contentHash, hash));
+        return new Entry(file.getFileName().toString(), hash, data.length);
+    }
+
+    /**
+     * @return The hash of the data
+     */
+    private String storeObject(byte[] data) throws IOException {
+        String hash = sha256(data);
+        Path object = objectPath(hash);
+        if (!Files.exists(object)) {
+            Files.createDirectories(object.getParent());
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(data.length / 4);
+            Deflater deflater = new Deflater(compression.level);
+            try (DeflaterOutputStream out = new DeflaterOutputStream(compressed, deflater, BUFFER_SIZE)) {
+                out.write(data);
+            } finally {
+                deflater.end();
+            }
+            AtomicFiles.commit(Collections.singletonMap(AtomicFiles.writeTemp(object, compressed.toByteArray()),
+                    object));
+        }
+        return hash;
+    }
+
+    private void writeManifest(String profile, String name, List<Entry> entries) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        // Sorted, so that equal backups have equal manifests
+        Map<String, Entry> sorted = new TreeMap<>();
+        entries.forEach(e -> sorted.put(e.fileName, e));
+        for (Entry e : sorted.values()) {
+            sb.append(e.hash).append(' ').append(e.size).append(' ').append(e.fileName).append('\n');
+        }
+        Path manifest = manifestPath(profile, name);
+        Files.createDirectories(manifest.getParent());
+        AtomicFiles.commit(Collections.singletonMap(
+                AtomicFiles.writeTemp(manifest, sb.toString().getBytes(StandardCharsets.UTF_8)), manifest));
+    }
+
+    private void deleteOtherSaveFiles(Path saveDir, List<Entry> keep) throws IOException {
+        List<String> names = keep.stream().map(e -> e.fileName).collect(Collectors.toList());
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(saveDir,
+                f -> Helpers.isSaveFileName(f.getFileName().toString()))) {
+            for (Path f : files) {
+                if (!names.contains(f.getFileName().toString())) {
+                    Files.deleteIfExists(f);
+                }
+            }
+        }
+    }
+
+    private void loadIndex() throws IOException {
+        if (index != null) {
+            return;
+        }
+        index = new ConcurrentHashMap<>();
+        try {
+            for (String line : Files.readAllLines(root.resolve(INDEX_FILE), StandardCharsets.UTF_8)) {
+                // hash size contentHash path
+                String[] parts = line.split(" ", 4);
+                if (parts.length == 4) {
+                    index.put(parts[3], new Stat(Long.parseLong(parts[1]), Long.parseLong(parts[2]), parts[0]));
+                }
+            }
+        } catch (NoSuchFileException e) {
+        } catch (NumberFormatException e) {
+            // Only a cache, start over
+            index.clear();
+        }
+    }
+
+    private void saveIndex() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        index.forEach((path, s) -> sb.append(s.hash).append(' ').append(s.size).append(' ').append(s.contentHash)
+                .append(' ').append(path).append('\n'));
+        Files.createDirectories(root);
+        Path file = root.resolve(INDEX_FILE);
+        AtomicFiles.commit(Collections.singletonMap(
+                AtomicFiles.writeTemp(file, sb.toString().getBytes(StandardCharsets.UTF_8)), file));
+    }
+
+    private Path manifestPath(String profile, String name) {
+        return root.resolve(profile).resolve(name + MANIFEST_EXT);
+    }
+
+    private Path objectPath(String hash) {
+        return root.resolve(OBJECTS_DIR).resolve(hash.substring(0, 2)).resolve(hash.substring(2));
+    }
+
+    static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(BUFFER_SIZE);
+        byte[] buf = new byte[BUFFER_SIZE];
+        int len;
+        while ((len = in.read(buf)) >= 0) {
+            out.write(buf, 0, len);
+        }
+        return out.toByteArray();
+    }
+
+    static String sha256(byte[] data) {
+        return toHex(sha256().digest(data));
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every JRE has SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] digest) {
+        StringBuilder sb = new StringBuilder(digest.length * 2);
+        for (byte b : digest) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,60 @@
+package de.robojumper.ddsavereader.util;
+
+/**
+ * Non-cryptographic 64-bit hash (FNV-1a) used to tell whether some content
+ * changed since it was last looked at. Not suitable for anything where an
+ * adversary picks the input.
+ *
+ * @author robojumper
+ */
+public final class ContentHash {
+
+    public static final long INITIAL = 0xcbf29ce484222325L;
+    private static final long PRIME = 0x100000001b3L;
+
+    private ContentHash() {
+    }
+
+    public static long update(long hash, int value) {
+        for (int i = 0; i < 4; i++) {
+            hash ^= (value >>> (i * 8)) & 0xFF;
+            hash *= PRIME;
+        }
+        return hash;
+    }
+
+    public static long update(long hash, CharSequence str) {
+        for (int i = 0; i < str.length(); i++) {
+            char c = str.charAt(i);
+            hash ^= c & 0xFF;
+            hash *= PRIME;
+            hash ^= c >>> 8;
+            hash *= PRIME;
+        }
+        // Terminate so that "ab", "c" and "a", "bc" differ
+        return update(hash, str.length());
+    }
+
+    /**
+     * Hashes eight bytes at a time, so this is not the same as FNV-1a over the
+     * bytes, but a lot faster for whole files.
+     */
+    public static long update(long hash, byte[] data, int off, int len) {
+        int end = off + len;
+        int i = off;
+        for (; i + 8 <= end; i += 8) {
+            long word = (data[i] & 0xFFL) | (data[i + 1] & 0xFFL) << 8 | (data[i + 2] & 0xFFL) << 16
+                    | (data[i + 3] & 0xFFL) << 24 | (data[i + 4] & 0xFFL) << 32 | (data[i + 5] & 0xFFL) << 40
+                    | (data[i + 6] & 0xFFL) << 48 | (data[i + 7] & 0xFFL) << 56;
+            hash ^= word;
+            hash *= PRIME;
+            // The multiplication only moves bits up, fold the high ones back in
+            hash ^= hash >>> 32;
+        }
+        for (; i < end; i++) {
+            hash ^= data[i] & 0xFF;
+            hash *= PRIME;
+        }
+        return update(hash, len);
+    }
+}
@@ -4,13 +4,16 @@ import de.robojumper.ddsavereader.BuildConfig;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
+import java.util.regex.Pattern;
 
 public class Helpers {
 
     public static final File DATA_DIR = new File(System.getProperty("user.home"), BuildConfig.DATA_DIR);
 
+    private static final Pattern SAVE_FILE_NAME = Pattern.compile(".*persist\\..*\\.json|novelty_tracker\\.json");
+
     public static boolean isSaveFileName(String fileName) {
-        return fileName.matches(".*persist\\..*\\.json") || fileName.matches("novelty_tracker\\.json");
+        return SAVE_FILE_NAME.matcher(fileName).matches();
     }
 
     public static void hideDataDir() {
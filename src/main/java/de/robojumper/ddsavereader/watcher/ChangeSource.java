@@ -0,0 +1,49 @@
+package de.robojumper.ddsavereader.watcher;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.function.Predicate;
+
+/**
+ * Tells the {@link DarkestSaveFileWatcher} which files changed in the
+ * directories it watches. Only the directory itself is watched, not its
+ * subdirectories. Except for {@link #register} and {@link #close()}, all
+ * methods are only called from the watcher thread.
+ *
+ * @author robojumper
+ */
+public interface ChangeSource extends Closeable {
+
+    interface Listener {
+        /**
+         * A file was created or modified. May be reported more than once for one
+         * change.
+         */
+        void fileChanged(Path file);
+
+        /**
+         * A directory can't be watched anymore and has been dropped.
+         */
+        void directoryLost(Path dir);
+    }
+
+    /**
+     * Starts reporting changes in a directory. Files that already exist are
+     * not reported.
+     *
+     * @param filter
+     *            File names (without directory) to report, others may be
+     *            ignored
+     */
+    void register(Path dir, Predicate<Path> filter) throws IOException;
+
+    /**
+     * Waits until there are changes or the timeout expired, and reports the
+     * changes to the listener.
+     *
+     * @param timeout
+     *            Milliseconds, or Long.MAX_VALUE to wait indefinitely
+     */
+    void poll(long timeout, Listener listener) throws InterruptedException;
+}
@@ -1,61 +1,278 @@
 package de.robojumper.ddsavereader.watcher;
 
-import static java.nio.file.StandardWatchEventKinds.*;
-
-import java.io.BufferedInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.nio.file.FileSystems;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
+import java.nio.file.PathMatcher;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
-import java.nio.file.WatchEvent;
-import java.nio.file.WatchKey;
-import java.nio.file.WatchService;
 import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.BiConsumer;
 import java.util.stream.Stream;
 
+import javax.management.JMException;
+import javax.management.ObjectName;
+
 import de.robojumper.ddsavereader.file.DsonFile;
 import de.robojumper.ddsavereader.file.DsonFile.UnhashBehavior;
+import de.robojumper.ddsavereader.util.ContentHash;
 import de.robojumper.ddsavereader.util.Helpers;
 
+/**
+ * Watches any number of save directories (profiles) with one WatchService and
+ * hands every save file that changed to the callback registered for its
+ * directory, decoded. Files are parsed on a small pool of worker threads, in
+ * parallel for different files, and the newest version of a file always wins.
+ * Each callback is called from one thread at a time, separate from the
+ * parsers; if it falls behind, it only gets the newest version of each file
+ * (see {@link DeliveryQueue}).
+ * 
+ * @author robojumper
+ */
 public class DarkestSaveFileWatcher implements Runnable {
     
-    private BiConsumer<String, DsonParseResult> callback;
-    private Path saveDir;
-    private WatchService watcher;
-    private WatchKey k;
+    // The game writes most files several times within a few hundred ms when saving
+    public static final long DEFAULT_QUIET_PERIOD = 250;
+    public static final long DEFAULT_MAX_DELAY = 1000;
+    public static final int DEFAULT_NUM_WORKERS = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+    public static final int DEFAULT_DELIVERY_CAPACITY = 32;
+    
+    private static final AtomicInteger NUM_INSTANCES = new AtomicInteger();
+    // Every worker reads into its own buffer, most save files fit in 64k
+    private static final ThreadLocal<ByteBuffer> READ_BUFFER = ThreadLocal.withInitial(() -> ByteBuffer.allocate(1 << 16));
     
+    private static class Directory {
+        final Path dir;
+        final DeliveryQueue queue;
+        // null: all save files
+        final Set<String> names;
+        final List<PathMatcher> globs;
+
+        Directory(Path dir, DeliveryQueue queue, Collection<String> files) {
+            this.dir = dir;
+            this.queue = queue;
+            if (files == null) {
+                this.names = null;
+                this.globs = null;
+            } else {
+                this.names = new HashSet<>();
+                this.globs = new ArrayList<>();
+                for (String f : files) {
+                    if (f.matches(".*[*?\\[{].*")) {
+                        globs.add(dir.getFileSystem().getPathMatcher("glob:" + f));
+                    } else {
+                        names.add(f);
+                    }
+                }
+            }
+        }
+
+        boolean wants(Path fileName) {
+            String name = fileName.toString();
+            if (!Helpers.isSaveFileName(name)) {
+                return false;
+            } else if (names == null || names.contains(name)) {
+                return true;
+            }
+            for (PathMatcher m : globs) {
+                if (m.matches(fileName)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+    
+    private final ChangeSource source;
+    private final Map<Path, Directory> directories = new ConcurrentHashMap<>();
+    private EventCoalescer<Path> coalescer = new EventCoalescer<>(DEFAULT_QUIET_PERIOD, DEFAULT_MAX_DELAY);
+    // Size and content hash of the last version of each file that was handed to
+    // the consumer without errors. Only updated in delivery order, so that
+    // versions that were dropped or overtaken aren't mistaken for delivered ones.
+    private final Map<Path, FileVersion> lastParsed = new ConcurrentHashMap<>();
+    private int numWorkers = DEFAULT_NUM_WORKERS;
+    private ExecutorService workers;
+    // Calls the callbacks, one thread per consumer that has something to deliver
+    private final ExecutorService deliveries = Executors.newCachedThreadPool(daemonThreads("Save consumer"));
+    private int deliveryCapacity = DEFAULT_DELIVERY_CAPACITY;
+    private final Map<Path, FileTask> tasks = new ConcurrentHashMap<>();
+    private final WatcherMetrics metrics = new WatcherMetrics();
+    private ObjectName metricsName;
+    
+    private volatile boolean started = false;
     private volatile boolean wantsStop = false;
     private volatile boolean stopped = false;
 
-    public DarkestSaveFileWatcher(BiConsumer<String, DsonParseResult> callback, String saveDir) throws IOException {
-        this.callback = callback;
-        this.saveDir =  Paths.get(saveDir);
+    /**
+     * Creates a watcher without any directories, see
+     * {@link #addDirectory(String, BiConsumer)}.
+     */
+    public DarkestSaveFileWatcher() throws IOException {
+        this(new WatchServiceChangeSource());
+    }
+
+    /**
+     * Creates a watcher without any directories that gets changes from the
+     * given source, e.g. a {@link PollingChangeSource}.
+     */
+    public DarkestSaveFileWatcher(ChangeSource source) {
+        this.source = source;
+    }
+
+    public DarkestSaveFileWatcher(BiConsumer<String, ParsedSaveFile> callback, String saveDir) throws IOException {
+        this();
+        addDirectory(saveDir, callback);
     }
 
     /**
-     * Watches a save directory for changes and updates the savestate model
+     * Starts watching a save directory. Can be called before or after
+     * {@link #watchSaveFiles()}, in both cases all save files in the directory
+     * are read once initially.
      * 
-     * @param state
-     *            Save state model
      * @param saveDir
      *            Directory to the saves
+     * @param callback
+     *            Receives the files of this directory
      * @throws IOException
      *             If the directory cannot be watched
      */
-    public void watchSaveFiles() throws IOException {
-        try {
-            watcher = FileSystems.getDefault().newWatchService();
-            k = saveDir.register(watcher, ENTRY_MODIFY, ENTRY_CREATE);
-            new Thread(this).start();
-        } catch (IOException e) {
+    public void addDirectory(String saveDir, BiConsumer<String, ParsedSaveFile> callback) throws IOException {
+        addDirectory(saveDir, null, callback);
+    }
 
+    /**
+     * Like {@link #addDirectory(String, BiConsumer)}, but only reads the
+     * given files. Other files in the directory are never read.
+     * 
+     * @param files
+     *            File names or globs (e.g. <code>persist.*.json</code>), or
+     *            null for all save files
+     */
+    public synchronized void addDirectory(String saveDir, Collection<String> files,
+            BiConsumer<String, ParsedSaveFile> callback) throws IOException {
+        Path dir = Paths.get(saveDir).toAbsolutePath().normalize();
+        if (directories.containsKey(dir)) {
+            throw new IllegalArgumentException(dir + " is already watched");
+        }
+        DeliveryQueue queue = new DeliveryQueue(callback, deliveryCapacity, deliveries, metrics, this::delivering);
+        Directory d = new Directory(dir, queue, files);
+        source.register(dir, d::wants);
+        directories.put(dir, d);
+        if (started) {
+            scheduleAll(d);
+        }
+    }
+
+    /**
+     * Starts watching the save directories for changes
+     */
+    public synchronized void watchSaveFiles() {
+        if (started) {
+            return;
+        }
+        workers = Executors.newFixedThreadPool(numWorkers, daemonThreads("Save parser"));
+        started = true;
+        registerMetrics();
+        for (Directory d : directories.values()) {
+            scheduleAll(d);
         }
+        new Thread(this).start();
+    }
+    
+    /**
+     * Sets how long to wait for a file to settle before parsing it. Must be
+     * called before {@link #watchSaveFiles()}. A quiet period of 0 parses on
+     * every change.
+     * 
+     * @param quietPeriod
+     *            Milliseconds without changes to a file before it is parsed
+     * @param maxDelay
+     *            Milliseconds after the first change after which a file is
+     *            parsed even if it keeps changing
+     */
+    public void setCoalescing(long quietPeriod, long maxDelay) {
+        this.coalescer = new EventCoalescer<>(quietPeriod, maxDelay);
+    }
+    
+    /**
+     * @return Number of change events that didn't cause a parse of their own
+     */
+    public long getNumCoalescedEvents() {
+        return metrics.getEventsCoalesced();
+    }
+    
+    /**
+     * @return Number of changes that were skipped because the file content was
+     *         the same as when it was last parsed
+     */
+    public long getNumSkippedUnchanged() {
+        return metrics.getSkippedUnchanged();
+    }
+    
+    /**
+     * @return Counters and timings. While the watcher runs, these are also
+     *         registered as an MXBean named
+     *         <code>de.robojumper.ddsavereader:type=SaveFileWatcher,id=N</code>
+     */
+    public WatcherMetrics getMetrics() {
+        return metrics;
+    }
+    
+    /**
+     * Sets the number of threads that parse files. Must be called before
+     * {@link #watchSaveFiles()}.
+     */
+    public void setNumWorkers(int numWorkers) {
+        if (numWorkers < 1) {
+            throw new IllegalArgumentException("Need at least one worker");
+        }
+        this.numWorkers = numWorkers;
+    }
+    
+    /**
+     * Sets how many parsed files may wait for a slow callback before the
+     * oldest is dropped. A dropped file is only delivered again with its next
+     * change event, so this should be larger than the number of subscribed
+     * files.
+     * Only affects directories added afterwards.
+     */
+    public void setDeliveryQueueCapacity(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        this.deliveryCapacity = capacity;
+    }
+    
+    /**
+     * @return Number of files waiting for a worker
+     */
+    public int getQueueDepth() {
+        return metrics.getQueueDepth();
+    }
+    
+    /**
+     * @return For every file parsed so far, the milliseconds between its first
+     *         change event and the callback returning, last time it was parsed
+     */
+    public Map<Path, Long> getLatencies() {
+        return metrics.getLastLatencies();
     }
     
     public void stop() {
@@ -66,47 +283,96 @@ public class DarkestSaveFileWatcher implements Runnable {
         return !stopped;
     }
     
-    static void tryHandleFile(Path file, BiConsumer<String, DsonParseResult> callback, Path saveDir) {
+    /**
+     * @return True if the file was handed to the consumer
+     */
+    boolean tryHandleFile(Path file, long firstEvent) {
         try {
-            if (Files.isRegularFile(file) && Helpers.isSaveFileName(file.getFileName().toString()) && file.getParent().equals(saveDir)) {
-                System.out.println("Reading " + file.getFileName().toString());
+            Directory dir = directories.get(file.getParent());
+            if (dir != null && dir.wants(file.getFileName()) && Files.isRegularFile(file)) {
                 // Open file with read option only to allow for file deletion and
                 // modifications from other programs.
-                try (InputStream is = Files.newInputStream(file, StandardOpenOption.READ)) {
-
-                    BufferedInputStream stream = new BufferedInputStream(is);
-
-                    ByteArrayOutputStream buffer = new ByteArrayOutputStream();
-                    int nRead;
-                    byte[] data = new byte[1024];
-                    while ((nRead = stream.read(data, 0, data.length)) != -1) {
-                        buffer.write(data, 0, nRead);
+                try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                    ByteBuffer buffer = read(channel);
+                    int size = buffer.remaining();
+                    String fileName = file.getFileName().toString();
+                    long hash = ContentHash.update(ContentHash.INITIAL, buffer.array(), buffer.arrayOffset(), size);
+                    FileVersion version = new FileVersion(size, hash);
+                    if (version.equals(lastParsed.get(file))) {
+                        metrics.skippedUnchanged.increment();
+                        return false;
                     }
-
-                    buffer.flush();
-                    stream.close();
-                    byte[] byteArray = buffer.toByteArray();
-                    DsonParseResult result = null;
+                    ParsedSaveFile result = null;
+                    long start = System.nanoTime();
                     try {
                         // Don't unhash names as the Save State will do that
-                        DsonFile f = new DsonFile(byteArray, UnhashBehavior.NONE);
-                        String jsonString = f.toString() + "\n";
-                        result = new DsonParseResult(jsonString, false);
+                        DsonFile f = new DsonFile(buffer, UnhashBehavior.NONE);
+                        result = new ParsedSaveFile(fileName, f, size, hash, System.nanoTime() - start);
+                        metrics.parsed(file.toString(), TimeUnit.NANOSECONDS.toMillis(result.getParseNanos()));
                     } catch (ParseException e) {
-                        result = new DsonParseResult(file.getFileName().toString() + ":" + e.getErrorOffset() + " - " + e.getMessage(), true);
+                        result = new ParsedSaveFile(fileName, fileName + ":" + e.getErrorOffset() + " - " + e.getMessage(),
+                                size, hash, System.nanoTime() - start);
+                        metrics.failed(file.toString(), TimeUnit.NANOSECONDS.toMillis(result.getParseNanos()), e);
                     } catch (Exception e) {
-                    	result = new DsonParseResult(file.getFileName().toString() + ":" + e.getMessage(), true);
+                        result = new ParsedSaveFile(fileName, fileName + ":" + e.getMessage(), size, hash,
+                                System.nanoTime() - start);
+                        metrics.failed(file.toString(), TimeUnit.NANOSECONDS.toMillis(result.getParseNanos()), e);
                     }
-                    callback.accept(file.getFileName().toString(), result);
+                    dir.queue.offer(file, result, firstEvent);
+                    return true;
                 } catch (NoSuchFileException e) {
+                    metrics.error(e);
                     System.err.println("Couldn't read/parse " + file.getFileName().toString());
                 }
             } else {
                 //System.err.println("Couldn't read/parse " + file.getFileName().toString());
             }
         } catch (Exception e) {
+            metrics.error(e);
             System.err.println("Couldn't read/parse " + file.getFileName().toString());
         }
+        return false;
+    }
+
+    /**
+     * Called right before the result is handed to the consumer.
+     */
+    private void delivering(Path file, ParsedSaveFile result) {
+        if (result.hasError()) {
+            lastParsed.remove(file);
+        } else {
+            lastParsed.put(file, new FileVersion(result.getSize(), result.getContentHash()));
+        }
+    }
+
+    /**
+     * Reads the whole file into this thread's buffer, growing it if the file
+     * doesn't fit. The buffer is only valid until the next call.
+     * 
+     * @return The buffer, from position 0 to the end of the file
+     */
+    private static ByteBuffer read(FileChannel channel) throws IOException {
+        ByteBuffer buffer = READ_BUFFER.get();
+        // The file may still grow while we read it, so the size is only a hint
+        long size = channel.size();
+        if (size >= Integer.MAX_VALUE) {
+            throw new IOException("File too large");
+        }
+        if (buffer.capacity() <= size) {
+            buffer = ByteBuffer.allocate(Math.max((int) size + 1, buffer.capacity() * 2));
+        }
+        buffer.clear();
+        while (channel.read(buffer) >= 0) {
+            if (!buffer.hasRemaining()) {
+                ByteBuffer larger = ByteBuffer.allocate(buffer.capacity() * 2);
+                buffer.flip();
+                larger.put(buffer);
+                buffer = larger;
+            }
+        }
+        READ_BUFFER.set(buffer);
+        buffer.flip();
+        return buffer;
     }
 
     @Override
@@ -116,69 +382,185 @@ public class DarkestSaveFileWatcher implements Runnable {
     }
     
     private void mainLoop() {
-        try (Stream<Path> paths = Files.walk(saveDir)) {
-            paths.forEach(p -> tryHandleFile(p, callback, saveDir));
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-        while (!wantsStop) {
-            // wait for key to be signaled
-            WatchKey key;
-            try {
-                key = watcher.take();
-            } catch (InterruptedException x) {
-                return;
+        ChangeSource.Listener listener = new ChangeSource.Listener() {
+            @Override
+            public void fileChanged(Path file) {
+                metrics.eventsReceived.increment();
+                if (coalescer.offer(file, now())) {
+                    metrics.eventsCoalesced.increment();
+                }
             }
 
-            for (WatchEvent<?> event : key.pollEvents()) {
-                WatchEvent.Kind<?> kind = event.kind();
-
-                // This key is registered only
-                // for ENTRY_MODIFY events,
-                // but an OVERFLOW event can
-                // occur regardless if events
-                // are lost or discarded.
-                if (kind == OVERFLOW) {
-                    continue;
+            @Override
+            public void directoryLost(Path dir) {
+                System.err.println("Can't watch " + dir + " anymore");
+                directories.remove(dir);
+                if (directories.isEmpty()) {
+                    wantsStop = true;
                 }
-
-                // The filename is the
-                // context of the event.
-                @SuppressWarnings("unchecked")
-                WatchEvent<Path> ev = (WatchEvent<Path>) event;
-                Path filename = ev.context();
-
-                // Resolve the filename against the directory.
-                // If the filename is "test" and the directory is "foo",
-                // the resolved name is "test/foo".
-                Path child = saveDir.resolve(filename);
-                tryHandleFile(child, callback, saveDir);
             }
-
-            // Reset the key -- this step is critical if you want to
-            // receive further watch events. If the key is no longer valid,
-            // the directory is inaccessible so exit the loop.
-            boolean valid = key.reset();
-            if (!valid) {
+        };
+        while (!wantsStop) {
+            // wait for changes, or for a pending file to settle
+            try {
+                long timeout = coalescer.isEmpty() ? Long.MAX_VALUE : Math.max(0, coalescer.getNextDeadline() - now());
+                source.poll(timeout, listener);
+            } catch (InterruptedException x) {
                 break;
             }
+
+            coalescer.takeDue(now(), this::schedule);
         }
+        // Let files that are already queued finish
+        workers.shutdown();
         try {
-            k.cancel();
-            watcher.close();
+            workers.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        deliveries.shutdown();
+        unregisterMetrics();
+        try {
+            source.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+    
+    private void scheduleAll(Directory d) {
+        try (Stream<Path> paths = Files.list(d.dir)) {
+            long now = now();
+            paths.forEach(p -> schedule(p, now));
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
     
-    public static class DsonParseResult {
-        public final String data;   
-        public final boolean encounteredError;
+    private void schedule(Path file, long firstEvent) {
+        Directory dir = directories.get(file.getParent());
+        if (dir == null || !dir.wants(file.getFileName()) || Files.isDirectory(file)) {
+            return;
+        }
+        tasks.computeIfAbsent(file, FileTask::new).schedule(firstEvent);
+    }
+    
+    /**
+     * Parses one file. There's at most one of these queued or running per
+     * file, changes while it runs make it run again afterwards.
+     */
+    private class FileTask implements Runnable {
+        final Path file;
+        // Guarded by this
+        private boolean queued, running, dirty;
+        // Time of the first change event not seen by a parse yet
+        private long firstEvent;
         
+        FileTask(Path file) {
+            this.file = file;
+        }
         
-        public DsonParseResult(String data, boolean encounteredError) {
-            this.data = data;
-            this.encounteredError = encounteredError;
+        synchronized void schedule(long eventTime) {
+            if (running) {
+                // Still reading the old version, go again when done
+                if (!dirty) {
+                    dirty = true;
+                    firstEvent = eventTime;
+                }
+            } else if (!queued) {
+                // If already queued, the worker will read the newest version anyway
+                queued = true;
+                firstEvent = eventTime;
+                metrics.queueDepth.incrementAndGet();
+                try {
+                    workers.execute(this);
+                } catch (RejectedExecutionException e) {
+                    // Stopped, e.g. a directory added while shutting down
+                    queued = false;
+                    metrics.queueDepth.decrementAndGet();
+                }
+            }
+        }
+        
+        @Override
+        public void run() {
+            long since;
+            synchronized (this) {
+                queued = false;
+                running = true;
+                since = firstEvent;
+            }
+            metrics.queueDepth.decrementAndGet();
+            while (true) {
+                // Doesn't throw, errors are reported to the callback
+                tryHandleFile(file, since);
+                synchronized (this) {
+                    if (!dirty) {
+                        running = false;
+                        return;
+                    }
+                    dirty = false;
+                    since = firstEvent;
+                }
+            }
+        }
+    }
+    
+    private void registerMetrics() {
+        try {
+            metricsName = new ObjectName("de.robojumper.ddsavereader:type=SaveFileWatcher,id="
+                    + NUM_INSTANCES.incrementAndGet());
+            ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, metricsName);
+        } catch (JMException e) {
+            // Metrics are still available through getMetrics()
+            System.err.println("Couldn't register watcher metrics: " + e.getMessage());
+            metricsName = null;
+        }
+    }
+    
+    private void unregisterMetrics() {
+        if (metricsName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(metricsName);
+            } catch (JMException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+    
+    private static ThreadFactory daemonThreads(String name) {
+        AtomicInteger threadNum = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, name + " " + threadNum.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+    
+    static long now() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+    }
+    
+    private static class FileVersion {
+        final int size;
+        final long hash;
+
+        FileVersion(int size, long hash) {
+            this.size = size;
+            this.hash = hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof FileVersion)) {
+                return false;
+            }
+            FileVersion other = (FileVersion) obj;
+            return size == other.size && hash == other.hash;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(hash);
         }
     }
 }
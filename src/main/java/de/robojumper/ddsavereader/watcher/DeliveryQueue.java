@@ -0,0 +1,114 @@
+package de.robojumper.ddsavereader.watcher;
+
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.BiConsumer;
+
+/**
+ * Hands parsed files to one consumer on a thread of its own, so that a slow
+ * consumer doesn't hold up parsing. Holds at most one version per file: if a
+ * file is parsed again before the consumer got to the previous version, the
+ * previous version is dropped. If more files than the capacity are waiting,
+ * the oldest one is dropped.
+ *
+ * @author robojumper
+ */
+class DeliveryQueue {
+
+    private static class Delivery {
+        final Path file;
+        final ParsedSaveFile result;
+        final long firstEvent;
+
+        Delivery(Path file, ParsedSaveFile result, long firstEvent) {
+            this.file = file;
+            this.result = result;
+            this.firstEvent = firstEvent;
+        }
+    }
+
+    private final BiConsumer<String, ParsedSaveFile> callback;
+    private final int capacity;
+    private final Executor executor;
+    private final WatcherMetrics metrics;
+    private final BiConsumer<Path, ParsedSaveFile> delivering;
+
+    // Guarded by this
+    private final Map<Path, Delivery> pending = new LinkedHashMap<>();
+    private boolean draining = false;
+
+    /**
+     * @param delivering
+     *            Called on the delivery thread right before the callback, for
+     *            every version that isn't dropped
+     */
+    DeliveryQueue(BiConsumer<String, ParsedSaveFile> callback, int capacity, Executor executor,
+            WatcherMetrics metrics, BiConsumer<Path, ParsedSaveFile> delivering) {
+        this.callback = callback;
+        this.capacity = capacity;
+        this.executor = executor;
+        this.metrics = metrics;
+        this.delivering = delivering;
+    }
+
+    /**
+     * @param firstEvent
+     *            Time of the first change event that led to this result
+     */
+    void offer(Path file, ParsedSaveFile result, long firstEvent) {
+        synchronized (this) {
+            Delivery old = pending.remove(file);
+            if (old != null) {
+                // Keep the earlier event time, the consumer has seen neither
+                firstEvent = old.firstEvent;
+                metrics.droppedVersions.increment();
+            } else if (pending.size() >= capacity) {
+                Iterator<Delivery> it = pending.values().iterator();
+                it.next();
+                it.remove();
+                metrics.droppedVersions.increment();
+            }
+            pending.put(file, new Delivery(file, result, firstEvent));
+            if (draining) {
+                return;
+            }
+            draining = true;
+        }
+        try {
+            executor.execute(this::drain);
+        } catch (RejectedExecutionException e) {
+            // Stopped, nobody is listening anymore
+            synchronized (this) {
+                pending.clear();
+                draining = false;
+            }
+        }
+    }
+
+    private void drain() {
+        while (true) {
+            Delivery d;
+            synchronized (this) {
+                Iterator<Delivery> it = pending.values().iterator();
+                if (!it.hasNext()) {
+                    draining = false;
+                    return;
+                }
+                d = it.next();
+                it.remove();
+            }
+            try {
+                delivering.accept(d.file, d.result);
+                callback.accept(d.result.getFileName(), d.result);
+            } catch (RuntimeException e) {
+                metrics.error(e);
+                e.printStackTrace();
+            }
+            metrics.delivered(d.file, DarkestSaveFileWatcher.now() - d.firstEvent);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package de.robojumper.ddsavereader.watcher;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.ObjLongConsumer;
+
+/**
+ * Collects change events per key (usually a file) and releases a key once it
+ * has been quiet for a while, or once it has been pending for too long. The
+ * game writes a file several times in quick succession when saving, this way
+ * a burst of writes only causes one parse of the final content.
+ *
+ * Not thread safe, all times are in milliseconds on a monotonic clock.
+ *
+ * @author robojumper
+ */
+public class EventCoalescer<K> {
+
+    private static class Pending {
+        final long firstSeen;
+        long lastSeen;
+
+        Pending(long now) {
+            this.firstSeen = now;
+            this.lastSeen = now;
+        }
+    }
+
+    private final long quietPeriod;
+    private final long maxDelay;
+    private final Map<K, Pending> pending = new LinkedHashMap<>();
+
+    /**
+     * @param quietPeriod Time without new events after which a key is released
+     * @param maxDelay    Time after the first event after which a key is
+     *                    released even if events keep coming in
+     */
+    public EventCoalescer(long quietPeriod, long maxDelay) {
+        if (quietPeriod < 0 || maxDelay < quietPeriod) {
+            throw new IllegalArgumentException("Need 0 <= quietPeriod <= maxDelay");
+        }
+        this.quietPeriod = quietPeriod;
+        this.maxDelay = maxDelay;
+    }
+
+    /**
+     * @return True if the event was merged into an already pending one, i.e. a
+     *         parse was saved
+     */
+    public boolean offer(K key, long now) {
+        Pending p = pending.get(key);
+        if (p == null) {
+            pending.put(key, new Pending(now));
+            return false;
+        } else {
+            p.lastSeen = now;
+            return true;
+        }
+    }
+
+    public boolean isEmpty() {
+        return pending.isEmpty();
+    }
+
+    /**
+     * @return The earliest time at which some key will be due, or
+     *         Long.MAX_VALUE if nothing is pending
+     */
+    public long getNextDeadline() {
+        long deadline = Long.MAX_VALUE;
+        for (Pending p : pending.values()) {
+            deadline = Math.min(deadline, deadline(p));
+        }
+        return deadline;
+    }
+
+    /**
+     * Removes all keys that are due and passes them to the action together
+     * with the time of their first event, in the order they first came in.
+     */
+    public void takeDue(long now, ObjLongConsumer<K> action) {
+        Iterator<Map.Entry<K, Pending>> it = pending.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<K, Pending> e = it.next();
+            if (deadline(e.getValue()) <= now) {
+                it.remove();
+                action.accept(e.getKey(), e.getValue().firstSeen);
+            }
+        }
+    }
+
+    private long deadline(Pending p) {
+        return Math.min(p.lastSeen + quietPeriod, p.firstSeen + maxDelay);
+    }
+}
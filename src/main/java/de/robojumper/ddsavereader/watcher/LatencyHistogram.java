@@ -0,0 +1,79 @@
+package de.robojumper.ddsavereader.watcher;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts latencies in buckets that double in size: below 1ms, below 2ms, below
+ * 4ms... up to about 30 seconds. Thread safe and cheap enough to record every
+ * parse.
+ *
+ * @author robojumper
+ */
+public class LatencyHistogram {
+
+    private static final int NUM_BUCKETS = 17;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(NUM_BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long millis) {
+        millis = Math.max(0, millis);
+        // Bucket i holds [2^(i-1), 2^i), bucket 0 holds 0
+        int bucket = Math.min(NUM_BUCKETS - 1, 64 - Long.numberOfLeadingZeros(millis));
+        buckets.incrementAndGet(bucket);
+        count.incrementAndGet();
+        sum.addAndGet(millis);
+        max.accumulateAndGet(millis, Math::max);
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public double getMean() {
+        long c = count.get();
+        return c == 0 ? 0 : (double) sum.get() / c;
+    }
+
+    /**
+     * @param percentile
+     *            Between 0 and 100
+     * @return An upper bound (the bucket limit) for the given percentile, in ms
+     */
+    public long getPercentile(double percentile) {
+        long c = count.get();
+        if (c == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(c * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            seen += buckets.get(i);
+            if (seen >= rank) {
+                return i == NUM_BUCKETS - 1 ? max.get() : 1L << i;
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * @return Count per bucket, by label ("&lt;1ms", "&lt;2ms"...), in order
+     */
+    public Map<String, Long> getBuckets() {
+        Map<String, Long> result = new LinkedHashMap<>();
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            String label = i == NUM_BUCKETS - 1 ? ">=" + (1L << (i - 1)) + "ms" : "<" + (1L << i) + "ms";
+            result.put(label, buckets.get(i));
+        }
+        return result;
+    }
+}
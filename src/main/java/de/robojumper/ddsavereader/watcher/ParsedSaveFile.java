@@ -0,0 +1,82 @@
+package de.robojumper.ddsavereader.watcher;
+
+import de.robojumper.ddsavereader.file.DsonFile;
+
+/**
+ * A save file as read by the {@link DarkestSaveFileWatcher}: either the
+ * decoded file, or the reason it couldn't be decoded.
+ *
+ * @author robojumper
+ */
+public class ParsedSaveFile {
+
+    private final String fileName;
+    private final DsonFile file;
+    private final String error;
+    private final int size;
+    private final long contentHash;
+    private final long parseNanos;
+
+    ParsedSaveFile(String fileName, DsonFile file, int size, long contentHash, long parseNanos) {
+        this.fileName = fileName;
+        this.file = file;
+        this.error = null;
+        this.size = size;
+        this.contentHash = contentHash;
+        this.parseNanos = parseNanos;
+    }
+
+    ParsedSaveFile(String fileName, String error, int size, long contentHash, long parseNanos) {
+        this.fileName = fileName;
+        this.file = null;
+        this.error = error;
+        this.size = size;
+        this.contentHash = contentHash;
+        this.parseNanos = parseNanos;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public boolean hasError() {
+        return error != null;
+    }
+
+    /**
+     * @return The error message, or null if the file was decoded
+     */
+    public String getError() {
+        return error;
+    }
+
+    /**
+     * @return The decoded file, or null if there was an error. Names are not
+     *         unhashed.
+     */
+    public DsonFile getFile() {
+        return file;
+    }
+
+    /**
+     * @return File size in bytes
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * @return {@link de.robojumper.ddsavereader.util.ContentHash} of the file
+     *         contents
+     */
+    public long getContentHash() {
+        return contentHash;
+    }
+
+    /**
+     * @return Time spent decoding the file, in nanoseconds
+     */
+    public long getParseNanos() {
+        return parseNanos;
+    }
+}
@@ -0,0 +1,163 @@
+package de.robojumper.ddsavereader.watcher;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.NotDirectoryException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * Finds changes by listing the watched directories every so often and
+ * comparing modification time, size and file key (inode) of each file with the
+ * last scan. For file systems where the {@link java.nio.file.WatchService}
+ * is unreliable or slow, like network shares, FUSE mounts or container bind
+ * mounts.
+ *
+ * A scan never reads file contents, and files the filter rejects aren't even
+ * stat'ed, so the cost of a scan only grows with the number of watched files.
+ *
+ * @author robojumper
+ */
+public class PollingChangeSource implements ChangeSource {
+
+    public static final long DEFAULT_INTERVAL = 1000;
+
+    private static class Stat {
+        long mtime;
+        long size;
+        Object fileKey;
+        long scan;
+    }
+
+    private static class Registration {
+        final Path dir;
+        final Predicate<Path> filter;
+        // By file name, only touched by the thread that scans
+        final Map<Path, Stat> files = new HashMap<>();
+
+        Registration(Path dir, Predicate<Path> filter) {
+            this.dir = dir;
+            this.filter = filter;
+        }
+    }
+
+    private final long interval;
+    private final List<Registration> registrations = new CopyOnWriteArrayList<>();
+    // Only touched by the thread that scans
+    private long numScans = 0;
+    private long nextScan = 0;
+
+    /**
+     * @param interval
+     *            Milliseconds between two scans
+     */
+    public PollingChangeSource(long interval) {
+        if (interval <= 0) {
+            throw new IllegalArgumentException("Interval must be positive");
+        }
+        this.interval = interval;
+    }
+
+    @Override
+    public void register(Path dir, Predicate<Path> filter) throws IOException {
+        if (!Files.isDirectory(dir)) {
+            throw new NotDirectoryException(dir.toString());
+        }
+        Registration r = new Registration(dir, filter);
+        // Remember what's already there without reporting it
+        scan(r, 0, null);
+        registrations.add(r);
+    }
+
+    @Override
+    public void poll(long timeout, Listener listener) throws InterruptedException {
+        long wait = nextScan - now();
+        if (wait > timeout) {
+            TimeUnit.MILLISECONDS.sleep(timeout);
+            return;
+        } else if (wait > 0) {
+            TimeUnit.MILLISECONDS.sleep(wait);
+        }
+        scan(listener);
+        nextScan = now() + interval;
+    }
+
+    /**
+     * Scans all directories right away and reports the files that changed
+     * since the last scan.
+     */
+    public void scan(Listener listener) {
+        long scan = ++numScans;
+        for (Registration r : registrations) {
+            scan(r, scan, listener);
+        }
+    }
+
+    private void scan(Registration r, long scan, Listener listener) {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(r.dir)) {
+            for (Path file : files) {
+                Path name = file.getFileName();
+                if (!r.filter.test(name)) {
+                    continue;
+                }
+                BasicFileAttributes attrs;
+                try {
+                    attrs = Files.readAttributes(file, BasicFileAttributes.class);
+                } catch (NoSuchFileException e) {
+                    // Deleted since we listed it
+                    continue;
+                }
+                if (!attrs.isRegularFile()) {
+                    continue;
+                }
+                long mtime = attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+                Stat s = r.files.get(name);
+                boolean changed;
+                if (s == null) {
+                    s = new Stat();
+                    r.files.put(name, s);
+                    changed = true;
+                } else {
+                    changed = s.mtime != mtime || s.size != attrs.size() || !Objects.equals(s.fileKey, attrs.fileKey());
+                }
+                s.mtime = mtime;
+                s.size = attrs.size();
+                s.fileKey = attrs.fileKey();
+                s.scan = scan;
+                if (changed && listener != null) {
+                    listener.fileChanged(file);
+                }
+            }
+        } catch (NoSuchFileException | NotDirectoryException e) {
+            registrations.remove(r);
+            if (listener != null) {
+                listener.directoryLost(r.dir);
+            }
+            return;
+        } catch (IOException e) {
+            // Try again next time
+            e.printStackTrace();
+            return;
+        }
+        // Forget deleted files, so that they count as changed if they come back
+        r.files.values().removeIf(s -> s.scan != scan);
+    }
+
+    private static long now() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+    }
+
+    @Override
+    public void close() {
+        registrations.clear();
+    }
+}
@@ -0,0 +1,107 @@
+package de.robojumper.ddsavereader.watcher;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+/**
+ * Gets changes from the file system's {@link WatchService}. This is the
+ * default, but it may miss changes on network shares and some other mounts,
+ * see {@link PollingChangeSource}.
+ *
+ * @author robojumper
+ */
+public class WatchServiceChangeSource implements ChangeSource {
+
+    private static class Registration {
+        final Path dir;
+        final Predicate<Path> filter;
+
+        Registration(Path dir, Predicate<Path> filter) {
+            this.dir = dir;
+            this.filter = filter;
+        }
+    }
+
+    private final WatchService watcher;
+    private final Map<WatchKey, Registration> keys = new ConcurrentHashMap<>();
+
+    public WatchServiceChangeSource() throws IOException {
+        this.watcher = FileSystems.getDefault().newWatchService();
+    }
+
+    @Override
+    public void register(Path dir, Predicate<Path> filter) throws IOException {
+        WatchKey key = dir.register(watcher, ENTRY_MODIFY, ENTRY_CREATE);
+        keys.put(key, new Registration(dir, filter));
+    }
+
+    @Override
+    public void poll(long timeout, Listener listener) throws InterruptedException {
+        // wait for key to be signaled
+        WatchKey key = timeout == Long.MAX_VALUE ? watcher.take() : watcher.poll(timeout, TimeUnit.MILLISECONDS);
+        if (key == null) {
+            return;
+        }
+        Registration r = keys.get(key);
+        if (r == null) {
+            key.cancel();
+            return;
+        }
+
+        for (WatchEvent<?> event : key.pollEvents()) {
+            // An OVERFLOW event can occur regardless if events
+            // are lost or discarded. Report everything, the
+            // watcher skips files that didn't actually change.
+            if (event.kind() == OVERFLOW) {
+                rescan(r, listener);
+                continue;
+            }
+
+            // The filename is the
+            // context of the event.
+            @SuppressWarnings("unchecked")
+            WatchEvent<Path> ev = (WatchEvent<Path>) event;
+            Path filename = ev.context();
+            if (r.filter.test(filename)) {
+                // Resolve the filename against the directory.
+                listener.fileChanged(r.dir.resolve(filename));
+            }
+        }
+
+        // Reset the key -- this step is critical if you want to
+        // receive further watch events. If the key is no longer valid,
+        // the directory is inaccessible.
+        if (!key.reset()) {
+            keys.remove(key);
+            listener.directoryLost(r.dir);
+        }
+    }
+
+    private void rescan(Registration r, Listener listener) {
+        try (Stream<Path> paths = Files.list(r.dir)) {
+            paths.filter(p -> r.filter.test(p.getFileName())).forEach(listener::fileChanged);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (WatchKey k : keys.keySet()) {
+            k.cancel();
+        }
+        watcher.close();
+    }
+}
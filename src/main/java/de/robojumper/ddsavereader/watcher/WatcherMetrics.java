@@ -0,0 +1,171 @@
+package de.robojumper.ddsavereader.watcher;
+
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and timings of a {@link DarkestSaveFileWatcher}, so that one can
+ * tell whether it keeps up with the game. Registered as an MXBean while the
+ * watcher runs, see {@link DarkestSaveFileWatcher#getMetrics()}.
+ *
+ * @author robojumper
+ */
+public class WatcherMetrics implements WatcherMetricsMXBean {
+
+    final LongAdder eventsReceived = new LongAdder();
+    final LongAdder eventsCoalesced = new LongAdder();
+    final LongAdder skippedUnchanged = new LongAdder();
+    final LongAdder droppedVersions = new LongAdder();
+    final AtomicInteger queueDepth = new AtomicInteger();
+    private final Map<String, LongAdder> parsesByFile = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> failuresByFile = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> errorsByType = new ConcurrentHashMap<>();
+    private final LatencyHistogram parseLatency = new LatencyHistogram();
+    private final LatencyHistogram endToEndLatency = new LatencyHistogram();
+    private final Map<Path, Long> lastLatencies = new ConcurrentHashMap<>();
+
+    void parsed(String file, long parseMillis) {
+        parsesByFile.computeIfAbsent(file, k -> new LongAdder()).increment();
+        parseLatency.record(parseMillis);
+    }
+
+    // Failed decodes take time too, and a file the game is still writing may
+    // fail many times in a row
+    void failed(String file, long parseMillis, Throwable t) {
+        failuresByFile.computeIfAbsent(file, k -> new LongAdder()).increment();
+        parseLatency.record(parseMillis);
+        error(t);
+    }
+
+    void delivered(Path file, long eventToCallbackMillis) {
+        endToEndLatency.record(eventToCallbackMillis);
+        lastLatencies.put(file, eventToCallbackMillis);
+    }
+
+    void error(Throwable t) {
+        errorsByType.computeIfAbsent(t.getClass().getSimpleName(), k -> new LongAdder()).increment();
+    }
+
+    private static Map<String, Long> snapshot(Map<String, LongAdder> counters) {
+        Map<String, Long> result = new TreeMap<>();
+        counters.forEach((k, v) -> result.put(k, v.sum()));
+        return result;
+    }
+
+    /**
+     * @return Time to decode a file, including failed attempts
+     */
+    public LatencyHistogram getParseLatency() {
+        return parseLatency;
+    }
+
+    /**
+     * @return Time from the first change event of a file to its callback
+     *         returning, including coalescing and waiting for a worker
+     */
+    public LatencyHistogram getEndToEndLatency() {
+        return endToEndLatency;
+    }
+
+    @Override
+    public long getEventsReceived() {
+        return eventsReceived.sum();
+    }
+
+    @Override
+    public long getEventsCoalesced() {
+        return eventsCoalesced.sum();
+    }
+
+    @Override
+    public long getSkippedUnchanged() {
+        return skippedUnchanged.sum();
+    }
+
+    /**
+     * @return Last end-to-end latency of every file delivered so far
+     */
+    public Map<Path, Long> getLastLatencies() {
+        return new HashMap<>(lastLatencies);
+    }
+
+    @Override
+    public long getDroppedVersions() {
+        return droppedVersions.sum();
+    }
+
+    @Override
+    public long getParses() {
+        return parsesByFile.values().stream().mapToLong(LongAdder::sum).sum();
+    }
+
+    @Override
+    public Map<String, Long> getParsesByFile() {
+        return snapshot(parsesByFile);
+    }
+
+    @Override
+    public long getParseFailures() {
+        return failuresByFile.values().stream().mapToLong(LongAdder::sum).sum();
+    }
+
+    @Override
+    public Map<String, Long> getParseFailuresByFile() {
+        return snapshot(failuresByFile);
+    }
+
+    @Override
+    public Map<String, Long> getErrorsByType() {
+        return snapshot(errorsByType);
+    }
+
+    @Override
+    public int getQueueDepth() {
+        return queueDepth.get();
+    }
+
+    @Override
+    public double getParseLatencyMean() {
+        return parseLatency.getMean();
+    }
+
+    @Override
+    public long getParseLatencyP99() {
+        return parseLatency.getPercentile(99);
+    }
+
+    @Override
+    public long getParseLatencyMax() {
+        return parseLatency.getMax();
+    }
+
+    @Override
+    public Map<String, Long> getParseLatencyHistogram() {
+        return parseLatency.getBuckets();
+    }
+
+    @Override
+    public double getEndToEndLatencyMean() {
+        return endToEndLatency.getMean();
+    }
+
+    @Override
+    public long getEndToEndLatencyP99() {
+        return endToEndLatency.getPercentile(99);
+    }
+
+    @Override
+    public long getEndToEndLatencyMax() {
+        return endToEndLatency.getMax();
+    }
+
+    @Override
+    public Map<String, Long> getEndToEndLatencyHistogram() {
+        return endToEndLatency.getBuckets();
+    }
+}
@@ -0,0 +1,54 @@
+package de.robojumper.ddsavereader.watcher;
+
+import java.util.Map;
+
+/**
+ * JMX view of {@link WatcherMetrics}. Latencies are in milliseconds.
+ *
+ * @author robojumper
+ */
+public interface WatcherMetricsMXBean {
+
+    long getEventsReceived();
+
+    long getEventsCoalesced();
+
+    long getSkippedUnchanged();
+
+    /**
+     * @return Parsed versions that were replaced by a newer one, or pushed out
+     *         of a full queue, before the consumer got to them
+     */
+    long getDroppedVersions();
+
+    long getParses();
+
+    Map<String, Long> getParsesByFile();
+
+    /**
+     * @return Files that couldn't be decoded, not counted in {@link #getParses()}
+     */
+    long getParseFailures();
+
+    Map<String, Long> getParseFailuresByFile();
+
+    Map<String, Long> getErrorsByType();
+
+    int getQueueDepth();
+
+    double getParseLatencyMean();
+
+    long getParseLatencyP99();
+
+    long getParseLatencyMax();
+
+    Map<String, Long> getParseLatencyHistogram();
+
+    double getEndToEndLatencyMean();
+
+    long getEndToEndLatencyP99();
+
+    long getEndToEndLatencyMax();
+
+    Map<String, Long> getEndToEndLatencyHistogram();
+}
@@ -0,0 +1,218 @@
+package de.robojumper.ddsavereader.model;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.testng.annotations.Test;
+
+import com.google.common.io.ByteStreams;
+import com.google.gson.JsonParser;
+
+import de.robojumper.ddsavereader.file.DsonFile;
+import de.robojumper.ddsavereader.file.DsonFile.UnhashBehavior;
+import de.robojumper.ddsavereader.file.DsonWriter;
+import de.robojumper.ddsavereader.model.CampaignLog.Chapter;
+import de.robojumper.ddsavereader.model.helper.DsonTree;
+
+/**
+ * Checks that updating the save state only re-binds the parts of a file that
+ * actually changed, and that published snapshots stay the same.
+ */
+public class SaveStateTests {
+
+    private static DsonFile readFile(String path) throws IOException, ParseException {
+        byte[] data = ByteStreams.toByteArray(SaveStateTests.class.getClassLoader().getResourceAsStream(path));
+        return new DsonFile(data, UnhashBehavior.NONE);
+    }
+
+    private static DsonFile encode(String json) throws Exception {
+        return new DsonFile(new DsonWriter(json).bytes(), UnhashBehavior.NONE);
+    }
+
+    // Reynauld (ID 1) gets a kill
+    private static DsonFile addKill(DsonFile roster) throws Exception {
+        return encode(roster.toString().replaceFirst("\"enemies_killed\" : 43,", "\"enemies_killed\" : 44,"));
+    }
+
+    @Test
+    public void testTreeMatchesText() throws IOException, ParseException {
+        // Binding skips the JSON text, but must see the same tree
+        for (String profile : new String[] { "profile1", "profileReddit" }) {
+            for (String name : SaveState.TRACKED_FILES) {
+                DsonFile file = readFile(profile + "/" + name);
+                assertEquals(DsonTree.toJson(file), JsonParser.parseString(file.toString()), profile + "/" + name);
+            }
+        }
+    }
+
+    @Test
+    public void testRosterRebinding() throws Exception {
+        DsonFile file = readFile("profile1/persist.roster.json");
+        SaveState state = new SaveState();
+        state.update("persist.roster.json", file);
+        Map<Integer, Hero> before = new HashMap<>();
+        state.getRoster().getHeroes().forEach(h -> before.put(h.getID(), h));
+
+        // Same content: every hero keeps its object
+        state.update("persist.roster.json", file);
+        for (Hero h : state.getRoster().getHeroes()) {
+            assertSame(h, before.get(h.getID()), "Unchanged hero " + h.getName() + " was re-bound");
+        }
+
+        // Reynauld gets a kill: only he is re-bound
+        state.update("persist.roster.json", addKill(file));
+        assertEquals(state.getRoster().getHeroes().size(), before.size());
+        for (Hero h : state.getRoster().getHeroes()) {
+            if (h.getID() == 1) {
+                assertNotSame(h, before.get(1));
+                assertEquals(h.getKills(), 44);
+            } else {
+                assertSame(h, before.get(h.getID()), "Unchanged hero " + h.getName() + " was re-bound");
+            }
+        }
+    }
+
+    @Test
+    public void testSnapshots() throws Exception {
+        DsonFile file = readFile("profile1/persist.roster.json");
+        SaveState state = new SaveState();
+        state.update("persist.roster.json", file);
+        SaveState.Snapshot old = state.getSnapshot();
+
+        state.update("persist.roster.json", addKill(file));
+        SaveState.Snapshot current = state.getSnapshot();
+        assertEquals(current.getVersion(), old.getVersion() + 1);
+        assertEquals(old.getRoster().getHero(1).getKills(), 43);
+        assertEquals(current.getRoster().getHero(1).getKills(), 44);
+        assertSame(current.getEstate(), old.getEstate());
+
+        // A broken file doesn't replace the current snapshot
+        try {
+            state.update("persist.roster.json", encode("{ \"base_root\" : { \"heroes\" : { \"2\" : {} } } }"));
+        } catch (RuntimeException e) {
+            // Expected
+        }
+        assertSame(state.getSnapshot(), current);
+    }
+
+    @Test
+    public void testHeroLookup() throws IOException, ParseException {
+        SaveState state = new SaveState();
+        state.update("persist.roster.json", readFile("profile1/persist.roster.json"));
+        Roster roster = state.getRoster();
+        assertEquals(roster.getHeroID("Reynauld"), Integer.valueOf(1));
+        assertEquals(roster.getHeroID("reynauld"), Integer.valueOf(1));
+        assertEquals(roster.getHeroID("reyn"), Integer.valueOf(1));
+        assertNull(roster.getHeroID("reynaulds"));
+        assertNull(roster.getHeroID(""));
+    }
+
+    @Test
+    public void testHeroStats() throws IOException, ParseException {
+        SaveState state = new SaveState();
+        state.update("persist.roster.json", readFile("profile1/persist.roster.json"));
+        state.update("persist.campaign_log.json", readFile("profile1/persist.campaign_log.json"));
+        CampaignLog log = state.getCampaignLog();
+        for (Hero h : state.getRoster().getHeroes()) {
+            int id = h.getID();
+            int level = log.getChapters().stream().flatMap(c -> c.events.stream())
+                    .filter(e -> e instanceof CampaignLog.HeroLevelupEvent && ((CampaignLog.HeroLevelupEvent) e).guid == id)
+                    .mapToInt(e -> ((CampaignLog.HeroLevelupEvent) e).level).max().orElse(0);
+            long missions = log.getChapters().stream().flatMap(c -> c.events.stream())
+                    .filter(e -> e instanceof CampaignLog.MissionEvent && ((CampaignLog.MissionEvent) e).start
+                            && ((CampaignLog.MissionEvent) e).heroes.values().stream().anyMatch(r -> r.guid == id))
+                    .count();
+            assertEquals(log.getHeroLevel(id), level, h.getName() + " level");
+            assertEquals(log.getHeroMissionCount(id), missions, h.getName() + " missions");
+        }
+        assertEquals(log.getHeroLevel(-1), 0);
+        assertEquals(log.getHeroStats(-1).getLastMissionWeek(), -1);
+    }
+
+    @Test
+    public void testCampaignLogIngestion() throws IOException, ParseException {
+        DsonFile file = readFile("profileReddit/persist.campaign_log.json");
+        SaveState state = new SaveState();
+        state.update("persist.campaign_log.json", file);
+        List<Chapter> before = state.getCampaignLog().getChapters();
+
+        // Only the most recent chapter may still change and is decoded again
+        state.update("persist.campaign_log.json", file);
+        List<Chapter> after = state.getCampaignLog().getChapters();
+        assertEquals(after.size(), before.size());
+        for (int i = 0; i < after.size() - 1; i++) {
+            assertSame(after.get(i), before.get(i), "Old chapter " + after.get(i).chapterIndex + " was decoded again");
+        }
+
+        // A different, shorter log must not keep any of the old chapters
+        DsonFile otherFile = readFile("profile1/persist.campaign_log.json");
+        state.update("persist.campaign_log.json", otherFile);
+        SaveState fresh = new SaveState();
+        fresh.update("persist.campaign_log.json", otherFile);
+        assertEquals(state.getCampaignLog().getNumWeeks(), fresh.getCampaignLog().getNumWeeks());
+        List<Chapter> expected = fresh.getCampaignLog().getChapters();
+        List<Chapter> actual = state.getCampaignLog().getChapters();
+        assertEquals(actual.size(), expected.size());
+        for (int i = 0; i < actual.size(); i++) {
+            assertEquals(actual.get(i).events.size(), expected.get(i).events.size());
+            assertFalse(before.contains(actual.get(i)));
+        }
+    }
+
+    @Test
+    public void testCampaignLogOldChapterChanged() throws Exception {
+        DsonFile file = readFile("profile1/persist.campaign_log.json");
+        SaveState state = new SaveState();
+        state.update("persist.campaign_log.json", file);
+
+        // Reynauld's level up in the first chapter, which is frozen by now
+        DsonFile changed = encode(file.toString().replaceFirst(
+                "(\"name\" : \"Reynauld\",\\s*\"class\" : -?\\d+,\\s*\"guid\" : 1,\\s*\"level\" : )\\d+", "$16"));
+        state.update("persist.campaign_log.json", changed);
+        assertEquals(state.getCampaignLog().getHeroLevel(1), 6);
+    }
+
+    @Test
+    public void testCampaignLogSwitch() throws IOException, ParseException {
+        // A longer log from another campaign has chapters at the same indices,
+        // which must not be mistaken for the frozen ones
+        String[][] switches = { { "profile1", "profileReddit" }, { "profile1", "profileSwitch" },
+                { "profileSwitch", "profileReddit" } };
+        for (String[] profiles : switches) {
+            SaveState state = new SaveState();
+            state.update("persist.roster.json", readFile(profiles[1] + "/persist.roster.json"));
+            state.update("persist.campaign_log.json", readFile(profiles[0] + "/persist.campaign_log.json"));
+            DsonFile file = readFile(profiles[1] + "/persist.campaign_log.json");
+            state.update("persist.campaign_log.json", file);
+
+            SaveState fresh = new SaveState();
+            fresh.update("persist.campaign_log.json", file);
+            CampaignLog expected = fresh.getCampaignLog();
+            CampaignLog actual = state.getCampaignLog();
+            String what = profiles[0] + " -> " + profiles[1];
+            assertEquals(actual.getNumWeeks(), expected.getNumWeeks(), what);
+            assertEquals(actual.getChapters().size(), expected.getChapters().size(), what);
+            for (int i = 0; i < actual.getChapters().size(); i++) {
+                assertEquals(actual.getChapters().get(i).events.size(), expected.getChapters().get(i).events.size(),
+                        what);
+            }
+            for (Hero h : state.getRoster().getHeroes()) {
+                CampaignLog.HeroStats a = actual.getHeroStats(h.getID());
+                CampaignLog.HeroStats e = expected.getHeroStats(h.getID());
+                assertEquals(a.getMaxLevel(), e.getMaxLevel(), what + ", " + h.getName());
+                assertEquals(a.getMissionsStarted(), e.getMissionsStarted(), what + ", " + h.getName());
+                assertEquals(a.getDeaths(), e.getDeaths(), what + ", " + h.getName());
+                assertEquals(a.getLastMissionWeek(), e.getLastMissionWeek(), what + ", " + h.getName());
+            }
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package de.robojumper.ddsavereader.ui;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.io.IOException;
+import java.text.ParseException;
+
+import org.testng.annotations.Test;
+
+import com.google.common.io.ByteStreams;
+
+import de.robojumper.ddsavereader.file.DsonField;
+import de.robojumper.ddsavereader.file.DsonFile;
+import de.robojumper.ddsavereader.file.DsonFile.UnhashBehavior;
+
+public class DsonTreeViewTests {
+
+    private static DsonFile readFile(String path) throws IOException, ParseException {
+        byte[] data = ByteStreams.toByteArray(DsonTreeViewTests.class.getClassLoader().getResourceAsStream(path));
+        return new DsonFile(data, UnhashBehavior.POUNDUNHASH);
+    }
+
+    @Test
+    public void testText() throws IOException, ParseException {
+        DsonFile file = readFile("profile1/persist.estate.json");
+        DsonTreeView view = new DsonTreeView("persist.estate.json", file, () -> {
+        });
+        DsonField root = file.getRootFields().get(0);
+        assertEquals(view.textOf(root), file.getJSonString(root, 0));
+        for (DsonField f : root.children) {
+            assertEquals(view.textOf(f), file.getJSonString(f, 0));
+        }
+    }
+
+    @Test
+    public void testLargeText() throws IOException, ParseException {
+        DsonFile file = readFile("otherFiles/persist.campaign_log.json");
+        DsonTreeView view = new DsonTreeView("persist.campaign_log.json", file, () -> {
+        });
+        assertTrue(file.toString().length() > 2 * DsonTreeView.MAX_TEXT_LENGTH);
+
+        // Only the beginning of base_root, and what was left out
+        String text = view.textOf(file.getRootFields().get(0));
+        assertTrue(text.length() < DsonTreeView.MAX_TEXT_LENGTH + 4096, "Text has " + text.length() + " characters");
+        assertTrue(text.contains(" more fields, select them in the tree"));
+        assertTrue(file.getJSonString(file.getRootFields().get(0), 0).startsWith(text.substring(0, 1000)));
+    }
+}
@@ -0,0 +1,45 @@
+package de.robojumper.ddsavereader.ui;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.testng.annotations.Test;
+
+public class SearchIndexTests {
+
+    private static List<String> find(SearchIndex index, String query) {
+        return index.search(query).stream().map(r -> r.fileName + "@" + r.offset).collect(Collectors.toList());
+    }
+
+    @Test
+    public void testSearch() {
+        SearchIndex index = new SearchIndex(Runnable::run);
+        String roster = "{\n    \"name\" : \"Reynauld\",\n    \"trinket\" : \"###sun_ring\"\n}\n";
+        String town = "{\n    \"heroes\" : [\"reynauld\"]\n}\n";
+        index.update("persist.roster.json", () -> roster);
+        index.update("persist.town.json", () -> town);
+
+        // Case insensitive prefix matches, by file and offset
+        assertEquals(find(index, "reyn"), Arrays.asList("persist.roster.json@" + roster.indexOf("Reynauld"),
+                "persist.town.json@" + town.indexOf("reynauld")));
+        // # isn't part of a token
+        assertEquals(find(index, "sun_"), Arrays.asList("persist.roster.json@" + roster.indexOf("sun_ring")));
+        // All words must be in the file
+        assertEquals(find(index, "reynauld heroes").size(), 1);
+        assertEquals(index.search("reynauld").get(0).length, 8);
+
+        // Updating a file replaces its tokens
+        index.update("persist.roster.json", () -> "{ \"name\" : \"Dismas\" }");
+        assertEquals(find(index, "reynauld"), Arrays.asList("persist.town.json@" + town.indexOf("reynauld")));
+        assertEquals(find(index, "dismas").size(), 1);
+        assertEquals(find(index, "trinket").size(), 0);
+
+        index.clear();
+        assertTrue(index.search("dismas").isEmpty());
+        assertTrue(index.search("  ").isEmpty());
+    }
+}
@@ -0,0 +1,223 @@
+package de.robojumper.ddsavereader.ui;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.swing.SwingUtilities;
+
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import de.robojumper.ddsavereader.file.DsonFile;
+import de.robojumper.ddsavereader.file.DsonFile.UnhashBehavior;
+
+/**
+ * State may only be used on the EDT, so every step of these tests runs there.
+ */
+public class StateTests {
+
+    private static final String FILE = "persist.game.json";
+
+    private Path dir;
+    private int numProfiles;
+
+    @BeforeClass
+    public void createDir() throws IOException {
+        dir = Files.createTempDirectory("statetest");
+    }
+
+    @AfterClass
+    public void deleteDir() throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path f : files.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.delete(f);
+            }
+        }
+    }
+
+    // A fresh copy of a few files of the test profile
+    private Path copyProfile() throws IOException {
+        Path profile = Files.createDirectories(dir.resolve("profile_" + numProfiles++));
+        for (String name : new String[] { FILE, "persist.roster.json", "persist.estate.json" }) {
+            try (InputStream in = getClass().getClassLoader().getResourceAsStream("profile1/" + name)) {
+                Files.copy(in, profile.resolve(name));
+            }
+        }
+        return profile;
+    }
+
+    private static void onEDT(Runnable r) throws InterruptedException, InvocationTargetException {
+        SwingUtilities.invokeAndWait(r);
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException, InvocationTargetException {
+        long deadline = System.currentTimeMillis() + 10000;
+        boolean[] met = new boolean[1];
+        while (true) {
+            onEDT(() -> met[0] = condition.getAsBoolean());
+            if (met[0]) {
+                return;
+            }
+            assertTrue(System.currentTimeMillis() < deadline, "Timed out");
+            Thread.sleep(20);
+        }
+    }
+
+    @Test
+    public void testRevertedEdit() throws Exception {
+        Path profile = copyProfile();
+        State state = new State(f -> {
+        });
+        onEDT(() -> {
+            state.setSaveDir(profile.toString());
+            String contents = state.getContents(FILE);
+            State.SaveFile f = state.getSaveFile(FILE);
+
+            state.changeFile(FILE, contents + " ");
+            assertTrue(f.changed());
+            assertEquals(state.getNumUnsavedChanges(), 1);
+
+            // Typing the same text again, even as a different string, is no change
+            state.changeFile(FILE, new String(contents.toCharArray()));
+            assertFalse(f.changed());
+            assertFalse(state.anyChanges());
+            assertTrue(f.canSave());
+            assertEquals(f.getOriginalContents(), contents);
+        });
+    }
+
+    @Test
+    public void testSaveResetsChanges() throws Exception {
+        Path profile = copyProfile();
+        State state = new State(f -> {
+        });
+        AtomicReference<String> contents = new AtomicReference<>();
+        AtomicReference<State.SaveResult> result = new AtomicReference<>();
+        onEDT(() -> {
+            state.setSaveDir(profile.toString());
+            contents.set(state.getContents(FILE));
+            state.changeFile(FILE, contents.get() + " ");
+        });
+        waitFor(state::canSave);
+        onEDT(() -> state.saveChanges(s -> {
+        }, result::set));
+        waitFor(() -> result.get() != null);
+        assertNull(result.get().error);
+        assertEquals(result.get().numFiles, 1);
+
+        onEDT(() -> {
+            State.SaveFile f = state.getSaveFile(FILE);
+            assertFalse(state.isSaving());
+            assertFalse(f.changed());
+            assertFalse(state.anyChanges());
+            // The saved text is the new original
+            assertEquals(f.getOriginalContents(), contents.get() + " ");
+            state.changeFile(FILE, contents.get());
+            assertTrue(f.changed());
+        });
+        try {
+            new DsonFile(Files.readAllBytes(profile.resolve(FILE)), UnhashBehavior.NONE);
+        } catch (Exception e) {
+            throw new AssertionError("Saved file can't be read", e);
+        }
+    }
+
+    @Test
+    public void testEditsAreCheckedOnce() throws Exception {
+        Path profile = copyProfile();
+        AtomicInteger numChecks = new AtomicInteger();
+        State state = new State(f -> {
+            if (f.equals(FILE)) {
+                numChecks.incrementAndGet();
+            }
+        });
+        onEDT(() -> {
+            state.setSaveDir(profile.toString());
+            String contents = state.getContents(FILE);
+            // Typing faster than the check delay, only the last text is checked
+            for (int i = 0; i < 30; i++) {
+                state.changeFile(FILE, contents + String.join("", Collections.nCopies(i + 1, " ")));
+            }
+            state.changeFile(FILE, contents.replaceFirst("\\{", "{ x"));
+            assertTrue(state.isBusy());
+            assertFalse(state.canSave());
+        });
+        waitFor(() -> !state.isBusy());
+        // Give a second check the time to show up, if there was one
+        Thread.sleep(500);
+        onEDT(() -> {
+            State.SaveFile f = state.getSaveFile(FILE);
+            assertEquals(numChecks.get(), 1);
+            assertFalse(f.canSave());
+            assertFalse(f.errorReason.isEmpty());
+            assertTrue(state.getLastCheckMillis() >= 0);
+        });
+    }
+
+    @Test
+    public void testReloadDiscardsChecks() throws Exception {
+        Path profile = copyProfile();
+        State state = new State(f -> {
+        });
+        onEDT(() -> {
+            state.setSaveDir(profile.toString());
+            String contents = state.getContents(FILE);
+            state.changeFile(FILE, contents.replaceFirst("\\{", "{ x"));
+            // Let the check finish, its result can only be applied after this
+            try {
+                Thread.sleep(1000);
+            } catch (InterruptedException e) {
+                throw new AssertionError(e);
+            }
+            state.loadFiles();
+        });
+        Thread.sleep(500);
+        onEDT(() -> {
+            State.SaveFile f = state.getSaveFile(FILE);
+            assertEquals(state.getLastCheckMillis(), -1);
+            assertFalse(state.isBusy());
+            assertFalse(f.changed());
+            assertTrue(f.canSave());
+        });
+    }
+
+    @Test
+    public void testLargeFilesIndexedOnSearch() throws Exception {
+        Path profile = copyProfile();
+        // Not a valid save file, so its text is the error message
+        String large = "persist.large.json";
+        Files.write(profile.resolve(large), new byte[1 << 20]);
+        State state = new State(f -> {
+        });
+        onEDT(() -> state.setSaveDir(profile.toString()));
+        waitFor(() -> state.isLoaded(FILE) && state.isLoaded("persist.roster.json")
+                && state.isLoaded("persist.estate.json") && !state.isIndexing());
+
+        // Loading doesn't decode the large file, the first search does
+        onEDT(() -> {
+            assertTrue(state.isLargeFile(large));
+            assertFalse(state.search("reading").stream().anyMatch(r -> r.fileName.equals(large)));
+        });
+        waitFor(() -> !state.isIndexing());
+        onEDT(() -> {
+            assertTrue(state.search("reading").stream().anyMatch(r -> r.fileName.equals(large)));
+            assertTrue(state.isLargeFile(large));
+        });
+    }
+}
@@ -0,0 +1,97 @@
+package de.robojumper.ddsavereader.util;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.fail;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+public class AtomicFilesTests {
+
+    private Path dir;
+
+    @BeforeClass
+    public void createDir() throws IOException {
+        dir = Files.createTempDirectory("atomictest");
+    }
+
+    @AfterClass
+    public void deleteDir() throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path f : files.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.delete(f);
+            }
+        }
+    }
+
+    private static Path write(Path dir, String name, String contents) throws IOException {
+        return Files.write(dir.resolve(name), contents.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String read(Path dir, String name) throws IOException {
+        return new String(Files.readAllBytes(dir.resolve(name)), StandardCharsets.UTF_8);
+    }
+
+    private static List<String> list(Path dir) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.map(p -> p.getFileName().toString()).sorted().collect(Collectors.toList());
+        }
+    }
+
+    @Test
+    public void testCommit() throws IOException {
+        Path dir = Files.createDirectory(this.dir.resolve("commit"));
+        Path a = write(dir, "a.json", "old a");
+        Path b = write(dir, "b.json", "old b");
+        Map<Path, Path> temps = new LinkedHashMap<>();
+        temps.put(AtomicFiles.writeTemp(a, "new a".getBytes(StandardCharsets.UTF_8)), a);
+        temps.put(AtomicFiles.writeTemp(b, "new b".getBytes(StandardCharsets.UTF_8)), b);
+        temps.put(AtomicFiles.writeTemp(dir.resolve("c.json"), "new c".getBytes(StandardCharsets.UTF_8)),
+                dir.resolve("c.json"));
+        AtomicFiles.commit(temps);
+
+        assertEquals(read(dir, "a.json"), "new a");
+        assertEquals(read(dir, "b.json"), "new b");
+        assertEquals(read(dir, "c.json"), "new c");
+        assertEquals(list(dir), Arrays.asList("a.json", "b.json", "c.json"));
+    }
+
+    @Test
+    public void testFailedCommit() throws IOException {
+        Path dir = Files.createDirectory(this.dir.resolve("failed"));
+        Path a = write(dir, "a.json", "old a");
+        Path b = write(dir, "b.json", "old b");
+        Map<Path, Path> temps = new LinkedHashMap<>();
+        temps.put(AtomicFiles.writeTemp(a, "new a".getBytes(StandardCharsets.UTF_8)), a);
+        temps.put(AtomicFiles.writeTemp(dir.resolve("c.json"), "new c".getBytes(StandardCharsets.UTF_8)),
+                dir.resolve("c.json"));
+        // The last rename fails after the others went through
+        Path missing = AtomicFiles.createTemp(b);
+        Files.delete(missing);
+        temps.put(missing, b);
+        try {
+            AtomicFiles.commit(temps);
+            fail("Renaming a missing file must fail");
+        } catch (IOException e) {
+            assertEquals(e.getSuppressed().length, 0);
+        }
+
+        // Nothing was replaced or created, and nothing is left behind
+        assertEquals(read(dir, "a.json"), "old a");
+        assertEquals(read(dir, "b.json"), "old b");
+        assertEquals(list(dir), Arrays.asList("a.json", "b.json"));
+    }
+}
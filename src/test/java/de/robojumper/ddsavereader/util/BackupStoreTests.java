@@ -0,0 +1,131 @@
+package de.robojumper.ddsavereader.util;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+public class BackupStoreTests {
+
+    private Path dir;
+
+    @BeforeClass
+    public void createDir() throws IOException {
+        dir = Files.createTempDirectory("backuptest");
+    }
+
+    @AfterClass
+    public void deleteDir() throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path f : files.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.delete(f);
+            }
+        }
+    }
+
+    private long countObjects() throws IOException {
+        try (Stream<Path> files = Files.walk(dir.resolve("backups").resolve("objects"))) {
+            return files.filter(Files::isRegularFile).count();
+        }
+    }
+
+    @Test
+    public void testBackups() throws IOException {
+        Path saves = Files.createDirectories(dir.resolve("profile_0"));
+        Files.write(saves.resolve("persist.roster.json"), new byte[] { 1, 2, 3 });
+        Files.write(saves.resolve("persist.town.json"), new byte[] { 4, 5 });
+        Files.write(saves.resolve("notes.txt"), new byte[] { 6 });
+
+        BackupStore store = new BackupStore(dir.resolve("backups"));
+        store.create("profile_0", "first", saves);
+        assertEquals(countObjects(), 2);
+        assertEquals(store.getEntries("profile_0", "first").size(), 2);
+
+        // Only the changed file is stored again
+        Files.write(saves.resolve("persist.town.json"), new byte[] { 4, 5, 6, 7 });
+        store.setCompression(BackupStore.Compression.STORE);
+        store.create("profile_0", "second", saves);
+        assertEquals(countObjects(), 3);
+        assertEquals(store.list("profile_0").size(), 2);
+
+        // Changed content with the same size and modification time is still noticed
+        Path roster = saves.resolve("persist.roster.json");
+        FileTime mtime = Files.getLastModifiedTime(roster);
+        Files.write(roster, new byte[] { 1, 2, 9 });
+        Files.setLastModifiedTime(roster, mtime);
+        store.create("profile_0", "changed", saves);
+        assertEquals(countObjects(), 4);
+        store.delete("profile_0", "changed");
+        Files.write(roster, new byte[] { 1, 2, 3 });
+        assertTrue(store.prune() > 0);
+        assertEquals(countObjects(), 3);
+
+        Files.write(saves.resolve("persist.estate.json"), new byte[] { 8 });
+        store.restore("profile_0", "first", saves);
+        assertEquals(Files.readAllBytes(saves.resolve("persist.town.json")), new byte[] { 4, 5 });
+        assertFalse(Files.exists(saves.resolve("persist.estate.json")));
+        assertTrue(Files.exists(saves.resolve("notes.txt")));
+
+        // The roster is still used by the second backup
+        store.delete("profile_0", "first");
+        assertTrue(store.prune() > 0);
+        assertEquals(countObjects(), 2);
+        store.restore("profile_0", "second", saves);
+        assertEquals(Files.readAllBytes(saves.resolve("persist.roster.json")), new byte[] { 1, 2, 3 });
+
+        // If a file fails verification, nothing is restored
+        Files.write(saves.resolve("persist.roster.json"), new byte[] { 0 });
+        try {
+            store.restore("profile_0", "second", saves, (fileName, data) -> {
+                if (fileName.equals("persist.town.json")) {
+                    throw new IOException("invalid");
+                }
+            });
+            fail("Restore should fail");
+        } catch (IOException e) {
+        }
+        assertEquals(Files.readAllBytes(saves.resolve("persist.roster.json")), new byte[] { 0 });
+        try (Stream<Path> files = Files.list(saves)) {
+            assertEquals(files.count(), 3);
+        }
+    }
+
+    @Test
+    public void testImportZips() throws IOException {
+        Path profile = Files.createDirectories(dir.resolve("zipbackups").resolve("profile_1"));
+        try (OutputStream fos = Files.newOutputStream(profile.resolve("old.zip"));
+                ZipOutputStream zos = new ZipOutputStream(fos)) {
+            zos.putNextEntry(new ZipEntry("persist.game.json"));
+            zos.write(new byte[] { 9, 9 });
+            zos.closeEntry();
+        }
+
+        BackupStore store = new BackupStore(dir.resolve("zipbackups"));
+        assertEquals(store.importZips("profile_1"), 1);
+        // The zip is kept, but not imported again
+        assertTrue(Files.exists(profile.resolve("old.zip")));
+        assertEquals(store.importZips("profile_1"), 0);
+        assertEquals(store.list("profile_1"), Arrays.asList("old"));
+        List<BackupStore.Entry> entries = store.getEntries("profile_1", "old");
+        assertEquals(entries.size(), 1);
+        assertEquals(entries.get(0).fileName, "persist.game.json");
+        assertEquals(entries.get(0).size, 2);
+    }
+}
@@ -0,0 +1,127 @@
+package de.robojumper.ddsavereader.watcher;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+public class DarkestSaveFileWatcherTests {
+
+    private Path dir;
+
+    // Reports exactly the changes the test tells it about
+    private static class ManualChangeSource implements ChangeSource {
+        final BlockingQueue<Path> changes = new LinkedBlockingQueue<>();
+
+        @Override
+        public void register(Path dir, Predicate<Path> filter) {
+        }
+
+        @Override
+        public void poll(long timeout, Listener listener) throws InterruptedException {
+            Path file = changes.poll(Math.min(timeout, 50), TimeUnit.MILLISECONDS);
+            if (file != null) {
+                listener.fileChanged(file);
+                for (Path p = changes.poll(); p != null; p = changes.poll()) {
+                    listener.fileChanged(p);
+                }
+            }
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    @BeforeClass
+    public void createDir() throws IOException {
+        dir = Files.createTempDirectory("watchertest").toAbsolutePath().normalize();
+    }
+
+    @AfterClass
+    public void deleteDir() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path f : (Iterable<Path>) files::iterator) {
+                Files.delete(f);
+            }
+        }
+        Files.delete(dir);
+    }
+
+    // Replaces the file in one step, so that a parser never sees it half written
+    private void write(String fileName, int size) throws IOException {
+        Path temp = dir.resolve(fileName + ".tmp");
+        Files.write(temp, new byte[size]);
+        Files.move(temp, dir.resolve(fileName), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    @Test
+    public void testFileOrder() throws IOException, InterruptedException {
+        String[] fileNames = { "persist.game.json", "persist.town.json" };
+        int numVersions = 200;
+        Map<String, List<Integer>> delivered = new HashMap<>();
+        for (String f : fileNames) {
+            delivered.put(f, Collections.synchronizedList(new ArrayList<>()));
+        }
+
+        ManualChangeSource source = new ManualChangeSource();
+        DarkestSaveFileWatcher watcher = new DarkestSaveFileWatcher(source);
+        watcher.setCoalescing(0, 0);
+        watcher.setNumWorkers(4);
+        // The versions aren't valid save files, errors are delivered too
+        watcher.addDirectory(dir.toString(), (name, file) -> delivered.get(name).add(file.getSize()));
+        watcher.watchSaveFiles();
+        try {
+            // Every change is its own event, while earlier ones are still being parsed
+            for (int size = 1; size <= numVersions; size++) {
+                for (String f : fileNames) {
+                    write(f, size);
+                    source.changes.add(dir.resolve(f));
+                }
+            }
+            long deadline = System.currentTimeMillis() + 10000;
+            for (String f : fileNames) {
+                List<Integer> sizes = delivered.get(f);
+                while (sizes.isEmpty() || sizes.get(sizes.size() - 1) != numVersions) {
+                    assertTrue(System.currentTimeMillis() < deadline, f + " didn't reach the last version");
+                    Thread.sleep(10);
+                }
+            }
+        } finally {
+            watcher.stop();
+        }
+
+        // A file is only ever read by one worker at a time, so no version
+        // overtakes a newer one
+        for (String f : fileNames) {
+            List<Integer> sizes = new ArrayList<>(delivered.get(f));
+            for (int i = 1; i < sizes.size(); i++) {
+                assertTrue(sizes.get(i - 1) <= sizes.get(i), f + ": " + sizes.get(i - 1) + " after " + sizes.get(i));
+            }
+            assertEquals((int) sizes.get(sizes.size() - 1), numVersions);
+        }
+
+        // Failed decodes are counted and timed as well
+        WatcherMetrics metrics = watcher.getMetrics();
+        assertEquals(metrics.getParses(), 0);
+        assertTrue(metrics.getParseFailures() >= fileNames.length);
+        assertEquals(metrics.getParseLatency().getCount(), metrics.getParseFailures());
+    }
+}
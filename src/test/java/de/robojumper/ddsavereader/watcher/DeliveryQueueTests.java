@@ -0,0 +1,99 @@
+package de.robojumper.ddsavereader.watcher;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.testng.annotations.Test;
+
+public class DeliveryQueueTests {
+
+    private static ParsedSaveFile version(String fileName, int size) {
+        return new ParsedSaveFile(fileName, "test", size, size, 0);
+    }
+
+    private static void offer(DeliveryQueue queue, String fileName, int size) {
+        queue.offer(Paths.get(fileName), version(fileName, size), 0);
+    }
+
+    private static void runAll(List<Runnable> tasks) {
+        while (!tasks.isEmpty()) {
+            tasks.remove(0).run();
+        }
+    }
+
+    @Test
+    public void testLatestWins() {
+        List<Runnable> tasks = new ArrayList<>();
+        List<String> delivered = new ArrayList<>();
+        List<Path> delivering = new ArrayList<>();
+        WatcherMetrics metrics = new WatcherMetrics();
+        DeliveryQueue queue = new DeliveryQueue((name, file) -> delivered.add(name + "@" + file.getSize()), 8,
+                tasks::add, metrics, (path, file) -> delivering.add(path));
+
+        // While the consumer is busy, only the newest version of each file is kept
+        offer(queue, "persist.roster.json", 1);
+        offer(queue, "persist.town.json", 1);
+        offer(queue, "persist.roster.json", 2);
+        offer(queue, "persist.roster.json", 3);
+        assertEquals(tasks.size(), 1);
+        runAll(tasks);
+        assertEquals(delivered, Arrays.asList("persist.town.json@1", "persist.roster.json@3"));
+        assertEquals(delivering, Arrays.asList(Paths.get("persist.town.json"), Paths.get("persist.roster.json")));
+        assertEquals(metrics.getDroppedVersions(), 2);
+
+        // Once drained, the next version starts a new delivery
+        offer(queue, "persist.roster.json", 4);
+        assertEquals(tasks.size(), 1);
+        runAll(tasks);
+        assertEquals(delivered.get(delivered.size() - 1), "persist.roster.json@4");
+        assertEquals(metrics.getEndToEndLatency().getCount(), 3);
+    }
+
+    @Test
+    public void testCapacity() {
+        List<Runnable> tasks = new ArrayList<>();
+        List<String> delivered = new ArrayList<>();
+        List<Path> delivering = new ArrayList<>();
+        WatcherMetrics metrics = new WatcherMetrics();
+        DeliveryQueue queue = new DeliveryQueue((name, file) -> delivered.add(name), 2, tasks::add, metrics,
+                (path, file) -> delivering.add(path));
+
+        // The oldest file is dropped and never reported as delivered
+        offer(queue, "persist.roster.json", 1);
+        offer(queue, "persist.town.json", 1);
+        offer(queue, "persist.estate.json", 1);
+        runAll(tasks);
+        assertEquals(delivered, Arrays.asList("persist.town.json", "persist.estate.json"));
+        assertEquals(delivering, Arrays.asList(Paths.get("persist.town.json"), Paths.get("persist.estate.json")));
+        assertEquals(metrics.getDroppedVersions(), 1);
+
+        // A consumer that throws doesn't stop the queue
+        DeliveryQueue failing = new DeliveryQueue((name, file) -> {
+            throw new IllegalStateException(name);
+        }, 2, tasks::add, metrics, (path, file) -> {
+        });
+        offer(failing, "persist.roster.json", 1);
+        offer(failing, "persist.town.json", 1);
+        runAll(tasks);
+        assertEquals(metrics.getErrorsByType().get("IllegalStateException"), Long.valueOf(2));
+    }
+
+    @Test
+    public void testStopped() {
+        List<Path> delivering = new ArrayList<>();
+        DeliveryQueue queue = new DeliveryQueue((name, file) -> delivering.add(null), 2, r -> {
+            throw new RejectedExecutionException();
+        }, new WatcherMetrics(), (path, file) -> delivering.add(path));
+        // Nothing is delivered, and later offers don't get stuck
+        offer(queue, "persist.roster.json", 1);
+        offer(queue, "persist.roster.json", 2);
+        assertTrue(delivering.isEmpty());
+    }
+}
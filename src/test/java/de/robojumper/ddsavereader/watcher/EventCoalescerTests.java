@@ -0,0 +1,79 @@
+package de.robojumper.ddsavereader.watcher;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.testng.annotations.Test;
+
+public class EventCoalescerTests {
+
+    private static List<String> takeDue(EventCoalescer<String> coalescer, long now) {
+        List<String> due = new ArrayList<>();
+        coalescer.takeDue(now, (key, firstEvent) -> due.add(key + "@" + firstEvent));
+        return due;
+    }
+
+    @Test
+    public void testCoalescing() {
+        EventCoalescer<String> coalescer = new EventCoalescer<>(250, 1000);
+        assertTrue(coalescer.isEmpty());
+        assertEquals(coalescer.getNextDeadline(), Long.MAX_VALUE);
+
+        // A burst of writes to one file is one parse
+        assertFalse(coalescer.offer("roster", 0));
+        assertTrue(coalescer.offer("roster", 100));
+        assertTrue(coalescer.offer("roster", 200));
+        assertFalse(coalescer.offer("town", 150));
+        assertEquals(coalescer.getNextDeadline(), 400);
+
+        // Each file is released once it has been quiet, with its first event time
+        assertEquals(takeDue(coalescer, 399), Collections.emptyList());
+        assertEquals(takeDue(coalescer, 400), Arrays.asList("town@150"));
+        assertEquals(coalescer.getNextDeadline(), 450);
+        assertEquals(takeDue(coalescer, 450), Arrays.asList("roster@0"));
+        assertTrue(coalescer.isEmpty());
+
+        // Files that are due at the same time come in the order of their first event
+        coalescer.offer("town", 460);
+        coalescer.offer("roster", 470);
+        coalescer.offer("town", 470);
+        assertEquals(takeDue(coalescer, 1000), Arrays.asList("town@460", "roster@470"));
+
+        // Released files start over
+        assertFalse(coalescer.offer("roster", 1100));
+        assertEquals(takeDue(coalescer, 1350), Arrays.asList("roster@1100"));
+    }
+
+    @Test
+    public void testMaxDelay() {
+        EventCoalescer<String> coalescer = new EventCoalescer<>(250, 1000);
+        // A file that keeps changing is still released after the max delay
+        for (long t = 0; t < 1000; t += 200) {
+            coalescer.offer("roster", t);
+            assertEquals(takeDue(coalescer, t), Collections.emptyList());
+        }
+        assertEquals(coalescer.getNextDeadline(), 1000);
+        assertEquals(takeDue(coalescer, 1000), Arrays.asList("roster@0"));
+
+        // Without a quiet period, every event is due right away
+        EventCoalescer<String> immediate = new EventCoalescer<>(0, 0);
+        immediate.offer("roster", 5);
+        assertEquals(takeDue(immediate, 5), Arrays.asList("roster@5"));
+    }
+
+    @Test
+    public void testInvalidDelays() {
+        try {
+            new EventCoalescer<String>(500, 250);
+            fail("Max delay must not be shorter than the quiet period");
+        } catch (IllegalArgumentException e) {
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package de.robojumper.ddsavereader.watcher;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+public class PollingChangeSourceTests {
+
+    private Path dir;
+
+    private static class Changes implements ChangeSource.Listener {
+        final List<String> changed = new ArrayList<>();
+        final List<Path> lost = new ArrayList<>();
+
+        @Override
+        public void fileChanged(Path file) {
+            changed.add(file.getFileName().toString());
+        }
+
+        @Override
+        public void directoryLost(Path dir) {
+            lost.add(dir);
+        }
+    }
+
+    @BeforeClass
+    public void createDir() throws IOException {
+        dir = Files.createTempDirectory("pollingtest");
+    }
+
+    @AfterClass
+    public void deleteDir() throws IOException {
+        if (Files.exists(dir)) {
+            try (Stream<Path> files = Files.list(dir)) {
+                for (Path f : (Iterable<Path>) files::iterator) {
+                    Files.delete(f);
+                }
+            }
+            Files.delete(dir);
+        }
+    }
+
+    private List<String> scan(PollingChangeSource source) {
+        Changes c = new Changes();
+        source.scan(c);
+        Collections.sort(c.changed);
+        return c.changed;
+    }
+
+    @Test
+    public void testPolling() throws IOException {
+        Files.write(dir.resolve("a.json"), new byte[] { 1 });
+        Files.write(dir.resolve("b.json"), new byte[] { 2 });
+        Files.write(dir.resolve("c.txt"), new byte[] { 3 });
+
+        PollingChangeSource source = new PollingChangeSource(PollingChangeSource.DEFAULT_INTERVAL);
+        source.register(dir, p -> p.toString().endsWith(".json"));
+        // Files that existed before aren't reported
+        assertEquals(scan(source), Collections.emptyList());
+
+        // Size changed
+        Files.write(dir.resolve("a.json"), new byte[] { 1, 1 });
+        assertEquals(scan(source), Arrays.asList("a.json"));
+        assertEquals(scan(source), Collections.emptyList());
+
+        // Same size, but modified later
+        Path b = dir.resolve("b.json");
+        Files.setLastModifiedTime(b, FileTime.fromMillis(Files.getLastModifiedTime(b).toMillis() + 10000));
+        assertEquals(scan(source), Arrays.asList("b.json"));
+
+        // New files, ignored ones aren't reported
+        Files.write(dir.resolve("d.json"), new byte[] { 4 });
+        Files.write(dir.resolve("c.txt"), new byte[] { 3, 3 });
+        assertEquals(scan(source), Arrays.asList("d.json"));
+
+        // Deleted and created again
+        Files.delete(dir.resolve("d.json"));
+        assertEquals(scan(source), Collections.emptyList());
+        Files.write(dir.resolve("d.json"), new byte[] { 4 });
+        assertEquals(scan(source), Arrays.asList("d.json"));
+
+        deleteDir();
+        Changes c = new Changes();
+        source.scan(c);
+        assertEquals(c.lost, Arrays.asList(dir));
+        assertTrue(c.changed.isEmpty());
+    }
+}